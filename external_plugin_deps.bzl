@@ -0,0 +1,24 @@
+load("//tools/bzl:maven_jar.bzl", "maven_jar")
+
+JMH_VERS = "1.23"
+
+def external_plugin_deps():
+    maven_jar(
+        name = "jmh-core",
+        artifact = "org.openjdk.jmh:jmh-core:" + JMH_VERS,
+    )
+
+    maven_jar(
+        name = "jmh-generator-annprocess",
+        artifact = "org.openjdk.jmh:jmh-generator-annprocess:" + JMH_VERS,
+    )
+
+    maven_jar(
+        name = "jopt-simple",
+        artifact = "net.sf.jopt-simple:jopt-simple:4.6",
+    )
+
+    maven_jar(
+        name = "commons-math3",
+        artifact = "org.apache.commons:commons-math3:3.2",
+    )
@@ -0,0 +1,149 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static org.mockito.Mockito.mock;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Allocation-free request and response fakes for benchmarks.
+ *
+ * <p>Mockito mocks record every invocation, which would dominate both the time and the allocation
+ * rate of the measured code. The wrappers below override every method {@link GoImportFilter}
+ * calls, so the wrapped mocks are never invoked.
+ */
+class BenchmarkServlets {
+  static class Request extends HttpServletRequestWrapper {
+    private final String servletPath;
+    private final String queryString;
+
+    Request(String servletPath, String queryString) {
+      super(mock(HttpServletRequest.class));
+      this.servletPath = servletPath;
+      this.queryString = queryString;
+    }
+
+    @Override
+    public String getServletPath() {
+      return servletPath;
+    }
+
+    @Override
+    public String getQueryString() {
+      return queryString;
+    }
+
+    @Override
+    public String getMethod() {
+      return "GET";
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return null;
+    }
+
+    @Override
+    public String getRemoteUser() {
+      return null;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+      return "192.0.2.1";
+    }
+  }
+
+  static class Response extends HttpServletResponseWrapper {
+    private final Output out;
+
+    Response() {
+      super(mock(HttpServletResponse.class));
+      this.out = new Output();
+    }
+
+    long written() {
+      return out.written;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      return out;
+    }
+
+    @Override
+    public void setStatus(int sc) {}
+
+    @Override
+    public void setContentType(String type) {}
+
+    @Override
+    public void setCharacterEncoding(String charset) {}
+
+    @Override
+    public void setContentLength(int len) {}
+
+    @Override
+    public void setHeader(String name, String value) {}
+
+    @Override
+    public void addHeader(String name, String value) {}
+
+    @Override
+    public void setDateHeader(String name, long date) {}
+
+    @Override
+    public void addDateHeader(String name, long date) {}
+  }
+
+  /** Discards its input, only counting bytes so that writes cannot be optimized away. */
+  static class Output extends ServletOutputStream {
+    long written;
+
+    @Override
+    public void write(int b) {
+      written++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      written += len;
+    }
+
+    @Override
+    public void write(byte[] b) {
+      written += b.length;
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {}
+  }
+
+  private BenchmarkServlets() {}
+}
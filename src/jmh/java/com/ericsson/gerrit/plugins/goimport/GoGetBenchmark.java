@@ -0,0 +1,220 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.RefPermission;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the go-get resolution path of {@link GoImportFilter} and {@link
+ * GoImportResolver}.
+ *
+ * <p>Run with:
+ *
+ * <pre>
+ *   bazel run //:go-import_benchmarks -- -prof gc
+ * </pre>
+ *
+ * <p>The project cache and the permission backend are in-memory fakes, filled with {@code
+ * projects} synthetic project names of {@code depth} segments each. Their mocks are stub-only, so
+ * that Mockito does not record the invocations of the measured code.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GoGetBenchmark {
+  private static final String WEB_URL = "https://gerrit.example.com/";
+  private static final String GO_GET = "go-get=1";
+  private static final FilterChain CHAIN = (req, rsp) -> {};
+
+  @Param({"1000", "100000", "1000000"})
+  int projects;
+
+  @Param({"1", "4", "8"})
+  int depth;
+
+  @Param({"true", "false"})
+  boolean indexLoaded;
+
+  private GoImportResolver resolver;
+  private GoImportFilter filter;
+  private String hitName;
+  private String deepPackageName;
+  private String missName;
+  private BenchmarkServlets.Request hit;
+  private BenchmarkServlets.Request deepPackage;
+  private BenchmarkServlets.Request miss;
+  private BenchmarkServlets.Request authenticated;
+  private BenchmarkServlets.Request notGoGet;
+  private BenchmarkServlets.Response response;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    List<Project.NameKey> names = new ArrayList<>(projects);
+    Set<String> existing = new HashSet<>(projects * 2);
+    for (int i = 0; i < projects; i++) {
+      String name = projectName(i);
+      names.add(Project.nameKey(name));
+      existing.add(name);
+    }
+
+    ProjectState state = mock(ProjectState.class, withSettings().stubOnly());
+    ProjectCache projectCache = mock(ProjectCache.class, withSettings().stubOnly());
+    when(projectCache.get(any(Project.NameKey.class)))
+        .thenAnswer(
+            inv -> {
+              Project.NameKey name = inv.getArgument(0);
+              return existing.contains(name.get()) ? Optional.of(state) : Optional.empty();
+            });
+
+    GoImportMetrics metrics = new GoImportMetrics(new DisabledMetricMaker());
+    AnonymousUser anonymous = mock(AnonymousUser.class, withSettings().stubOnly());
+    PermissionBackend permissions = mock(PermissionBackend.class, withSettings().stubOnly());
+    PermissionBackend.WithUser withUser =
+        mock(PermissionBackend.WithUser.class, withSettings().stubOnly());
+    PermissionBackend.ForRef forRef =
+        mock(PermissionBackend.ForRef.class, withSettings().stubOnly());
+    when(permissions.user(anonymous)).thenReturn(withUser);
+    when(withUser.ref(any(BranchNameKey.class))).thenReturn(forRef);
+    when(forRef.testOrFalse(RefPermission.READ)).thenReturn(true);
+
+    AnonymousAccessCache.Loader anonymousAccessLoader =
+        new AnonymousAccessCache.Loader(() -> anonymous, permissions, metrics);
+
+    ProjectNameIndex index = new ProjectNameIndex();
+    if (indexLoaded) {
+      index.load(names);
+    }
+    resolver =
+        new GoImportResolver(
+            projectCache,
+            index,
+            new MissingProjectCache(CacheBuilder.newBuilder().maximumSize(8192).build()),
+            new AnonymousAccessCache(
+                CacheBuilder.newBuilder().build(),
+                anonymousAccessLoader,
+                metrics,
+                projectCache,
+                new AllProjectsName("All-Projects")),
+            metrics,
+            new Configuration(new Config(), "go-import"),
+            WEB_URL);
+    filter =
+        new GoImportFilter(resolver, new ResponseCache(CacheBuilder.newBuilder().build()), metrics);
+
+    hitName = projectName(projects / 2);
+    deepPackageName = hitName + "/internal/pkg/sub";
+    missName = "unknown/" + hitName;
+    hit = new BenchmarkServlets.Request("/" + hitName, GO_GET);
+    deepPackage = new BenchmarkServlets.Request("/" + deepPackageName, GO_GET);
+    miss = new BenchmarkServlets.Request("/" + missName, GO_GET);
+    authenticated = new BenchmarkServlets.Request("/a/" + hitName, GO_GET);
+    notGoGet =
+        new BenchmarkServlets.Request("/" + hitName + "/info/refs", "service=git-upload-pack");
+    response = new BenchmarkServlets.Response();
+  }
+
+  /** Project {@code i} has {@code depth - 1} group segments shared with other projects. */
+  private String projectName(int i) {
+    StringBuilder name = new StringBuilder();
+    int group = i;
+    for (int d = 1; d < depth; d++) {
+      group /= 16;
+      name.append("group").append(group % 64).append('-').append(d).append('/');
+    }
+    return name.append("repo").append(i).toString();
+  }
+
+  @Benchmark
+  public String longestMatchHit() {
+    return resolver.getLongestMatch(hitName);
+  }
+
+  @Benchmark
+  public String longestMatchDeepPackage() {
+    return resolver.getLongestMatch(deepPackageName);
+  }
+
+  @Benchmark
+  public String longestMatchMiss() {
+    return resolver.getLongestMatch(missName);
+  }
+
+  @Benchmark
+  public long doFilterHit() throws Exception {
+    filter.doFilter(hit, response, CHAIN);
+    return response.written();
+  }
+
+  @Benchmark
+  public long doFilterDeepPackage() throws Exception {
+    filter.doFilter(deepPackage, response, CHAIN);
+    return response.written();
+  }
+
+  @Benchmark
+  public long doFilterMiss() throws Exception {
+    filter.doFilter(miss, response, CHAIN);
+    return response.written();
+  }
+
+  @Benchmark
+  public long doFilterAuthenticated() throws Exception {
+    filter.doFilter(authenticated, response, CHAIN);
+    return response.written();
+  }
+
+  @Benchmark
+  public long doFilterNotGoGet() throws Exception {
+    filter.doFilter(notGoGet, response, CHAIN);
+    return response.written();
+  }
+}
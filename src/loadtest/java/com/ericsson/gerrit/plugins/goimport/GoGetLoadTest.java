@@ -0,0 +1,418 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.RefPermission;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Load test of {@link GoImportFilter} running in an embedded Jetty, driven over HTTP.
+ *
+ * <p>Run with:
+ *
+ * <pre>
+ *   bazel test //:go-import_loadtest --test_output=streamed
+ * </pre>
+ *
+ * <p>The project cache and the permission backend are in-memory fakes, filled with {@code
+ * loadtest.projects} synthetic project names of {@code loadtest.depth} segments each. Requests that
+ * are not go-get requests are answered by a servlet standing in for Gerrit. The mix of requests is
+ * drawn from a {@link Random} seeded with {@code loadtest.seed}, so every run with the same
+ * settings sends the same requests. The settings are system properties, passed with {@code
+ * --jvmopt=-Dloadtest.<name>=<value>}:
+ *
+ * <ul>
+ *   <li>{@code projects}, {@code depth}, {@code indexLoaded}: content of the fakes.
+ *   <li>{@code threads}: number of client threads.
+ *   <li>{@code warmup}, {@code requests}: number of requests sent before measuring, and measured.
+ *   <li>{@code mix}: weights of the request kinds, e.g. {@code hit:50,miss:20,deep:15,auth:10,
+ *       other:5}.
+ *   <li>{@code seed}: seed of the request mix.
+ *   <li>{@code format}: {@code text} or {@code json}.
+ * </ul>
+ *
+ * <p>The report is printed and, under Bazel, written to the undeclared outputs of the test.
+ */
+public class GoGetLoadTest {
+  private static final String WEB_URL = "https://gerrit.example.com/";
+  private static final String UPSTREAM = "upstream";
+
+  /** Kinds of requests sent by the client, with the status each one must get. */
+  private enum Kind {
+    HIT("hit", 200),
+    MISS("miss", 404),
+    DEEP_PACKAGE("deep", 200),
+    AUTHENTICATED("auth", 200),
+    NOT_GO_GET("other", 200);
+
+    final String key;
+    final int status;
+
+    Kind(String key, int status) {
+      this.key = key;
+      this.status = status;
+    }
+
+    static Kind of(String key) {
+      for (Kind k : values()) {
+        if (k.key.equals(key)) {
+          return k;
+        }
+      }
+      throw new IllegalArgumentException("unknown request kind: " + key);
+    }
+  }
+
+  private final int projects = Integer.getInteger("loadtest.projects", 100000);
+  private final int depth = Integer.getInteger("loadtest.depth", 4);
+  private final boolean indexLoaded =
+      Boolean.parseBoolean(System.getProperty("loadtest.indexLoaded", "true"));
+  private final int threads = Integer.getInteger("loadtest.threads", 8);
+  private final int warmup = Integer.getInteger("loadtest.warmup", 20000);
+  private final int requests = Integer.getInteger("loadtest.requests", 100000);
+  private final String mix =
+      System.getProperty("loadtest.mix", "hit:50,miss:20,deep:15,auth:10,other:5");
+  private final long seed = Long.getLong("loadtest.seed", 42);
+  private final String format = System.getProperty("loadtest.format", "text");
+
+  private Server server;
+  private String baseUrl;
+  private Kind[] kinds;
+  private int[] cumulativeWeights;
+
+  @Before
+  public void setUp() throws Exception {
+    // Keep one connection per client thread alive; the default is 5.
+    System.setProperty("http.maxConnections", String.valueOf(threads));
+    parseMix();
+
+    GoImportFilter filter = newFilter();
+    ServletContextHandler context = new ServletContextHandler();
+    context.setContextPath("/");
+    context.addFilter(new FilterHolder(filter), "/*", EnumSet.of(DispatcherType.REQUEST));
+    // Mapped to "/" like Gerrit's own servlets, so that the servlet path is the whole path.
+    context.addServlet(new ServletHolder(new UpstreamServlet()), "/");
+
+    server = new Server(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    server.setHandler(context);
+    server.start();
+    baseUrl =
+        "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/";
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void goGetLoad() throws Exception {
+    run(warmup, seed ^ 0x5DEECE66DL);
+
+    long start = System.nanoTime();
+    List<Result> results = run(requests, seed);
+    long elapsed = System.nanoTime() - start;
+
+    Map<String, Object> settings = new LinkedHashMap<>();
+    settings.put("projects", projects);
+    settings.put("depth", depth);
+    settings.put("indexLoaded", indexLoaded);
+    settings.put("threads", threads);
+    settings.put("warmup", warmup);
+    settings.put("mix", mix);
+    settings.put("seed", seed);
+    LoadTestReport report = new LoadTestReport(settings, elapsed);
+    for (Kind kind : kinds) {
+      report.add(kind.key, latencies(results, kind));
+    }
+    String out = "json".equals(format) ? report.toJson() : report.toText();
+    System.out.print(out);
+    String outputs = System.getenv("TEST_UNDECLARED_OUTPUTS_DIR");
+    if (outputs != null) {
+      Path file = Paths.get(outputs, "go-get-loadtest." + ("json".equals(format) ? "json" : "txt"));
+      Files.write(file, out.getBytes(UTF_8));
+    }
+
+    long errors = 0;
+    for (Result r : results) {
+      errors += r.errors;
+    }
+    assertWithMessage("requests with an unexpected status").that(errors).isEqualTo(0);
+    assertThat(report.requests()).isEqualTo(requests / threads * threads);
+  }
+
+  private GoImportFilter newFilter() {
+    List<Project.NameKey> names = new ArrayList<>(projects);
+    Set<String> existing = new HashSet<>(projects * 2);
+    for (int i = 0; i < projects; i++) {
+      String name = projectName(i);
+      names.add(Project.nameKey(name));
+      existing.add(name);
+    }
+
+    // Stub-only mocks do not record their invocations, which would grow for every request.
+    ProjectState state = mock(ProjectState.class, withSettings().stubOnly());
+    ProjectCache projectCache = mock(ProjectCache.class, withSettings().stubOnly());
+    when(projectCache.get(any(Project.NameKey.class)))
+        .thenAnswer(
+            inv -> {
+              Project.NameKey name = inv.getArgument(0);
+              return existing.contains(name.get()) ? Optional.of(state) : Optional.empty();
+            });
+
+    GoImportMetrics metrics = new GoImportMetrics(new DisabledMetricMaker());
+    AnonymousUser anonymous = mock(AnonymousUser.class, withSettings().stubOnly());
+    PermissionBackend permissions = mock(PermissionBackend.class, withSettings().stubOnly());
+    PermissionBackend.WithUser withUser =
+        mock(PermissionBackend.WithUser.class, withSettings().stubOnly());
+    PermissionBackend.ForRef forRef =
+        mock(PermissionBackend.ForRef.class, withSettings().stubOnly());
+    when(permissions.user(anonymous)).thenReturn(withUser);
+    when(withUser.ref(any(BranchNameKey.class))).thenReturn(forRef);
+    when(forRef.testOrFalse(RefPermission.READ)).thenReturn(true);
+
+    ProjectNameIndex index = new ProjectNameIndex();
+    if (indexLoaded) {
+      index.load(names);
+    }
+    GoImportResolver resolver =
+        new GoImportResolver(
+            projectCache,
+            index,
+            new MissingProjectCache(CacheBuilder.newBuilder().maximumSize(8192).build()),
+            new AnonymousAccessCache(
+                CacheBuilder.newBuilder().build(),
+                new AnonymousAccessCache.Loader(() -> anonymous, permissions, metrics),
+                metrics,
+                projectCache,
+                new AllProjectsName("All-Projects")),
+            metrics,
+            new Configuration(new Config(), "go-import"),
+            WEB_URL);
+    return new GoImportFilter(
+        resolver, new ResponseCache(CacheBuilder.newBuilder().build()), metrics);
+  }
+
+  /** Project {@code i} has {@code depth - 1} group segments shared with other projects. */
+  private String projectName(int i) {
+    StringBuilder name = new StringBuilder();
+    int group = i;
+    for (int d = 1; d < depth; d++) {
+      group /= 16;
+      name.append("group").append(group % 64).append('-').append(d).append('/');
+    }
+    return name.append("repo").append(i).toString();
+  }
+
+  private void parseMix() {
+    List<Kind> k = new ArrayList<>();
+    List<Integer> w = new ArrayList<>();
+    int total = 0;
+    for (String entry : mix.split(",")) {
+      String[] kv = entry.trim().split(":", 2);
+      int weight = Integer.parseInt(kv[1].trim());
+      if (weight > 0) {
+        total += weight;
+        k.add(Kind.of(kv[0].trim()));
+        w.add(total);
+      }
+    }
+    if (k.isEmpty()) {
+      throw new IllegalArgumentException("empty request mix: " + mix);
+    }
+    kinds = k.toArray(new Kind[0]);
+    cumulativeWeights = w.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /** Sends {@code count} requests, split over the client threads. */
+  private List<Result> run(int count, long runSeed) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Result>> futures = new ArrayList<>(threads);
+      for (int t = 0; t < threads; t++) {
+        Random random = new Random(runSeed * 31 + t);
+        int perThread = count / threads;
+        futures.add(pool.submit(() -> client(random, perThread)));
+      }
+      List<Result> results = new ArrayList<>(threads);
+      for (Future<Result> f : futures) {
+        results.add(f.get());
+      }
+      return results;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private Result client(Random random, int count) {
+    Result result = new Result(count);
+    byte[] buf = new byte[8192];
+    for (int i = 0; i < count; i++) {
+      Kind kind = nextKind(random);
+      String name = projectName(random.nextInt(projects));
+      long start = System.nanoTime();
+      int status;
+      try {
+        status = get(url(kind, name), buf);
+      } catch (IOException e) {
+        status = -1;
+      }
+      result.latencies[i] = System.nanoTime() - start;
+      result.kinds[i] = (byte) kind.ordinal();
+      if (status != kind.status) {
+        result.errors++;
+      }
+    }
+    return result;
+  }
+
+  private Kind nextKind(Random random) {
+    int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    int i = 0;
+    while (r >= cumulativeWeights[i]) {
+      i++;
+    }
+    return kinds[i];
+  }
+
+  private String url(Kind kind, String name) {
+    switch (kind) {
+      case HIT:
+        return baseUrl + name + "?go-get=1";
+      case MISS:
+        return baseUrl + "unknown/" + name + "?go-get=1";
+      case DEEP_PACKAGE:
+        return baseUrl + name + "/internal/pkg/sub?go-get=1";
+      case AUTHENTICATED:
+        return baseUrl + "a/" + name + "?go-get=1";
+      case NOT_GO_GET:
+      default:
+        return baseUrl + name + "/info/refs?service=git-upload-pack";
+    }
+  }
+
+  /** Sends a GET request and reads the whole response, so that the connection is reused. */
+  private static int get(String url, byte[] buf) throws IOException {
+    HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+    int status = c.getResponseCode();
+    try (InputStream in = status < 400 ? c.getInputStream() : c.getErrorStream()) {
+      if (in != null) {
+        while (in.read(buf) >= 0) {
+          // Discard the body.
+        }
+      }
+    }
+    return status;
+  }
+
+  private static long[] latencies(List<Result> results, Kind kind) {
+    int n = 0;
+    for (Result r : results) {
+      for (byte k : r.kinds) {
+        if (k == kind.ordinal()) {
+          n++;
+        }
+      }
+    }
+    long[] latencies = new long[n];
+    int i = 0;
+    for (Result r : results) {
+      for (int j = 0; j < r.kinds.length; j++) {
+        if (r.kinds[j] == kind.ordinal()) {
+          latencies[i++] = r.latencies[j];
+        }
+      }
+    }
+    return latencies;
+  }
+
+  /** Latencies and request kinds recorded by one client thread. */
+  private static class Result {
+    final long[] latencies;
+    final byte[] kinds;
+    long errors;
+
+    Result(int count) {
+      latencies = new long[count];
+      kinds = new byte[count];
+    }
+  }
+
+  /** Stands in for the Gerrit servlets behind the filter. */
+  private static class UpstreamServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final byte[] BODY = UPSTREAM.getBytes(UTF_8);
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse rsp) throws IOException {
+      rsp.setStatus(200);
+      rsp.setContentType("text/plain");
+      rsp.setContentLength(BODY.length);
+      rsp.getOutputStream().write(BODY);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gson.GsonBuilder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput and latency percentiles of a load test run, rendered as text or JSON. */
+class LoadTestReport {
+  private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+  private final Map<String, Object> settings;
+  private final long elapsedNanos;
+  private final Map<String, long[]> latencies = new LinkedHashMap<>();
+
+  /**
+   * @param settings parameters of the run, reported as is.
+   * @param elapsedNanos wall clock time of the measured requests.
+   */
+  LoadTestReport(Map<String, Object> settings, long elapsedNanos) {
+    this.settings = settings;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /** Adds the latencies, in nanoseconds, of the requests of one kind. */
+  void add(String kind, long[] nanos) {
+    long[] sorted = nanos.clone();
+    Arrays.sort(sorted);
+    latencies.put(kind, sorted);
+  }
+
+  long requests() {
+    long requests = 0;
+    for (long[] l : latencies.values()) {
+      requests += l.length;
+    }
+    return requests;
+  }
+
+  double throughput() {
+    return requests() / (elapsedNanos / 1e9);
+  }
+
+  String toText() {
+    StringBuilder s = new StringBuilder();
+    s.append("go-get load test\n");
+    for (Map.Entry<String, Object> e : settings.entrySet()) {
+      s.append(String.format("  %-12s %s%n", e.getKey(), e.getValue()));
+    }
+    s.append(String.format("  %-12s %d%n", "requests", requests()));
+    s.append(String.format("  %-12s %.1f ms%n", "elapsed", elapsedNanos / 1e6));
+    s.append(String.format("  %-12s %.0f requests/s%n%n", "throughput", throughput()));
+    s.append(
+        String.format(
+            "%-14s %10s %10s %10s %10s %10s%n", "", "count", "p50", "p99", "p999", "max"));
+    for (Map.Entry<String, long[]> e : allLatencies().entrySet()) {
+      long[] l = e.getValue();
+      s.append(String.format("%-14s %10d", e.getKey(), l.length));
+      for (double p : PERCENTILES) {
+        s.append(String.format(" %10s", micros(percentile(l, p))));
+      }
+      s.append(String.format(" %10s%n", micros(l.length == 0 ? 0 : l[l.length - 1])));
+    }
+    s.append("(latencies in microseconds)\n");
+    return s.toString();
+  }
+
+  String toJson() {
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("settings", settings);
+    json.put("requests", requests());
+    json.put("elapsed_ms", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    json.put("throughput", throughput());
+    Map<String, Object> kinds = new LinkedHashMap<>();
+    for (Map.Entry<String, long[]> e : allLatencies().entrySet()) {
+      long[] l = e.getValue();
+      Map<String, Object> kind = new LinkedHashMap<>();
+      kind.put("count", l.length);
+      kind.put("p50_us", percentile(l, 0.5) / 1000);
+      kind.put("p99_us", percentile(l, 0.99) / 1000);
+      kind.put("p999_us", percentile(l, 0.999) / 1000);
+      kind.put("max_us", (l.length == 0 ? 0 : l[l.length - 1]) / 1000);
+      kinds.put(e.getKey(), kind);
+    }
+    json.put("latency", kinds);
+    return new GsonBuilder().setPrettyPrinting().create().toJson(json) + "\n";
+  }
+
+  /** Returns the latencies per kind, followed by the latencies of all requests. */
+  private Map<String, long[]> allLatencies() {
+    Map<String, long[]> all = new LinkedHashMap<>(latencies);
+    long[] merged = new long[(int) requests()];
+    int i = 0;
+    for (long[] l : latencies.values()) {
+      System.arraycopy(l, 0, merged, i, l.length);
+      i += l.length;
+    }
+    Arrays.sort(merged);
+    all.put("all", merged);
+    return all;
+  }
+
+  /** Nearest-rank percentile of {@code sorted}. */
+  static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(p * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  }
+
+  private static String micros(long nanos) {
+    return String.valueOf(nanos / 1000);
+  }
+}
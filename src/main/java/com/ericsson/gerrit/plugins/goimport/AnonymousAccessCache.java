@@ -0,0 +1,339 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.RefPermission;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Cache of whether anonymous users may read {@code refs/heads/*} of a project.
+ *
+ * <p>Entries are invalidated when {@code refs/meta/config} is updated on the project or on any
+ * project it inherits its access rights from.
+ *
+ * <p>With {@link Configuration#refreshAfterNanos()} set, an entry that is read after it got older
+ * than that is still returned, and checked again in the background on the {@code
+ * GoImportAccessRefresh} work queue. Requests for hot projects then never wait for the permission
+ * backend, while entries that are not read expire as configured for the cache.
+ */
+@Singleton
+class AnonymousAccessCache implements GitReferenceUpdatedListener, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String NAME = "anonymous_access";
+  static final String REFRESH_QUEUE = "GoImportAccessRefresh";
+
+  /** Refreshes waiting for the work queue; stale entries are served without refresh beyond. */
+  @VisibleForTesting static final int MAX_PENDING_REFRESHES = 1024;
+
+  static com.google.inject.Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(NAME, String.class, Access.class)
+            .maximumWeight(16384)
+            .expireAfterWrite(Duration.ofHours(1));
+      }
+    };
+  }
+
+  /** Result of a permission check, when it was made, and the projects it inherited from. */
+  static class Access {
+    final boolean anonymousReadable;
+    final long checkedNanos;
+    final ImmutableSet<String> parents;
+
+    Access(boolean anonymousReadable, long checkedNanos, ImmutableSet<String> parents) {
+      this.anonymousReadable = anonymousReadable;
+      this.checkedNanos = checkedNanos;
+      this.parents = parents;
+    }
+  }
+
+  static class Loader {
+    private final Provider<AnonymousUser> anonProvider;
+    private final PermissionBackend permissions;
+    private final GoImportMetrics metrics;
+
+    @Inject
+    Loader(
+        Provider<AnonymousUser> anonProvider,
+        PermissionBackend permissions,
+        GoImportMetrics metrics) {
+      this.anonProvider = anonProvider;
+      this.permissions = permissions;
+      this.metrics = metrics;
+    }
+
+    boolean load(String projectName) {
+      BranchNameKey heads =
+          BranchNameKey.create(Project.nameKey(projectName), RefNames.REFS_HEADS);
+      try (Timer0.Context ctx = metrics.startPermissionCheck()) {
+        return permissions.user(anonProvider.get()).ref(heads).testOrFalse(RefPermission.READ);
+      }
+    }
+  }
+
+  private final Cache<String, Access> cache;
+  private final Loader loader;
+  private final GoImportMetrics metrics;
+  private final ProjectCache projectCache;
+  private final AllProjectsName allProjects;
+  private final long refreshAfterNanos;
+  private final WorkQueue workQueue;
+  private final Ticker ticker;
+
+  private final Set<String> pendingRefreshes = ConcurrentHashMap.newKeySet();
+  private volatile Executor refreshExecutor;
+
+  @Inject
+  AnonymousAccessCache(
+      @Named(NAME) Cache<String, Access> cache,
+      Loader loader,
+      GoImportMetrics metrics,
+      ProjectCache projectCache,
+      AllProjectsName allProjects,
+      Configuration config,
+      WorkQueue workQueue) {
+    this(
+        cache,
+        loader,
+        metrics,
+        projectCache,
+        allProjects,
+        config.refreshAfterNanos(),
+        workQueue,
+        null,
+        Ticker.systemTicker());
+  }
+
+  /** Creates a cache that does not refresh its entries. */
+  AnonymousAccessCache(
+      Cache<String, Access> cache,
+      Loader loader,
+      GoImportMetrics metrics,
+      ProjectCache projectCache,
+      AllProjectsName allProjects) {
+    this(cache, loader, metrics, projectCache, allProjects, 0, null, null, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  AnonymousAccessCache(
+      Cache<String, Access> cache,
+      Loader loader,
+      GoImportMetrics metrics,
+      ProjectCache projectCache,
+      AllProjectsName allProjects,
+      long refreshAfterNanos,
+      Executor refreshExecutor,
+      Ticker ticker) {
+    this(
+        cache,
+        loader,
+        metrics,
+        projectCache,
+        allProjects,
+        refreshAfterNanos,
+        null,
+        refreshExecutor,
+        ticker);
+  }
+
+  private AnonymousAccessCache(
+      Cache<String, Access> cache,
+      Loader loader,
+      GoImportMetrics metrics,
+      ProjectCache projectCache,
+      AllProjectsName allProjects,
+      long refreshAfterNanos,
+      WorkQueue workQueue,
+      Executor refreshExecutor,
+      Ticker ticker) {
+    this.cache = cache;
+    this.loader = loader;
+    this.metrics = metrics;
+    this.projectCache = projectCache;
+    this.allProjects = allProjects;
+    this.refreshAfterNanos = refreshAfterNanos;
+    this.workQueue = workQueue;
+    this.refreshExecutor = refreshExecutor;
+    this.ticker = ticker;
+  }
+
+  @Override
+  public void start() {
+    if (refreshAfterNanos > 0 && workQueue != null) {
+      refreshExecutor = workQueue.createQueue(1, REFRESH_QUEUE);
+    }
+  }
+
+  @Override
+  public void stop() {
+    Executor e = refreshExecutor;
+    if (e instanceof ScheduledExecutorService) {
+      ((ScheduledExecutorService) e).shutdownNow();
+      refreshExecutor = null;
+    }
+  }
+
+  boolean allowsAnonymousAccess(String projectName) {
+    Access access;
+    try {
+      access = cache.get(projectName, () -> check(projectName));
+    } catch (ExecutionException e) {
+      throw new UncheckedExecutionException(e.getCause());
+    }
+    return anonymousReadable(projectName, access);
+  }
+
+  /**
+   * Returns whether anonymous users may read {@code projectName} if that is cached, or else {@code
+   * null} without checking it.
+   */
+  Boolean cachedAnonymousAccess(String projectName) {
+    Access access = cache.getIfPresent(projectName);
+    return access != null ? anonymousReadable(projectName, access) : null;
+  }
+
+  private boolean anonymousReadable(String projectName, Access access) {
+    if (refreshAfterNanos > 0) {
+      long age = ticker.read() - access.checkedNanos;
+      if (age >= refreshAfterNanos) {
+        metrics.recordStaleAccess(age);
+        refresh(projectName, access);
+      }
+    }
+    return access.anonymousReadable;
+  }
+
+  long hitCount() {
+    return cache.stats().hitCount();
+  }
+
+  long missCount() {
+    return cache.stats().missCount();
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  long size() {
+    return cache.size();
+  }
+
+  void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  private Access check(String projectName) {
+    return new Access(loader.load(projectName), ticker.read(), parentsOf(projectName));
+  }
+
+  /** Returns the projects {@code projectName} inherits access rights from, but All-Projects. */
+  private ImmutableSet<String> parentsOf(String projectName) {
+    Optional<ProjectState> state = projectCache.get(Project.nameKey(projectName));
+    if (!state.isPresent()) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<String> parents = ImmutableSet.builder();
+    for (ProjectState parent : state.get().parents()) {
+      if (!allProjects.get().equals(parent.getName())) {
+        parents.add(parent.getName());
+      }
+    }
+    return parents.build();
+  }
+
+  private void refresh(String projectName, Access stale) {
+    Executor e = refreshExecutor;
+    if (e == null || !pendingRefreshes.add(projectName)) {
+      return;
+    }
+    if (pendingRefreshes.size() > MAX_PENDING_REFRESHES) {
+      pendingRefreshes.remove(projectName);
+      metrics.recordAccessRefresh(GoImportMetrics.REFRESH_SKIPPED);
+      return;
+    }
+    try {
+      e.execute(
+          () -> {
+            try {
+              Access fresh = check(projectName);
+              // An entry invalidated while it was checked must not come back.
+              boolean replaced = cache.asMap().replace(projectName, stale, fresh);
+              metrics.recordAccessRefresh(
+                  replaced ? GoImportMetrics.REFRESH_DONE : GoImportMetrics.REFRESH_DISCARDED);
+            } catch (RuntimeException ex) {
+              logger.atWarning().withCause(ex).log(
+                  "Cannot refresh anonymous access of %s", projectName);
+              metrics.recordAccessRefresh(GoImportMetrics.REFRESH_FAILED);
+            } finally {
+              pendingRefreshes.remove(projectName);
+            }
+          });
+    } catch (RejectedExecutionException ex) {
+      // Stopping; the stale entry expires as configured for the cache.
+      pendingRefreshes.remove(projectName);
+    }
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (!RefNames.REFS_CONFIG.equals(event.getRefName())) {
+      return;
+    }
+    String updated = event.getProjectName();
+    if (allProjects.get().equals(updated)) {
+      cache.invalidateAll();
+      return;
+    }
+    cache.invalidate(updated);
+    // Runs on the thread of the push: only the parents recorded with the entries are compared,
+    // no project state is loaded.
+    cache.asMap().values().removeIf(access -> access.parents.contains(updated));
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Lists project names by walking {@code gerrit.basePath} in parallel.
+ *
+ * <p>Bare repositories are recognized by their {@code HEAD} file and {@code objects} directory;
+ * neither repositories nor project configurations are opened. Like Gerrit's own repository
+ * discovery, symbolic links are followed and directories named {@code .git} are skipped. Each
+ * directory is listed by its own task on a fork-join pool of {@link Configuration#scanThreads()}
+ * threads.
+ *
+ * <p>Scanning is disabled when some repositories live outside of {@code gerrit.basePath}, as
+ * configured by {@code repository.<name>.basePath}.
+ */
+@Singleton
+class BasePathScanner {
+  private static final String DOT_GIT = Constants.DOT_GIT_EXT;
+  private static final EnumSet<FileVisitOption> FOLLOW_LINKS =
+      EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+
+  private final Path basePath;
+  private final int threads;
+
+  @Inject
+  BasePathScanner(SitePaths site, @GerritServerConfig Config cfg, Configuration config) {
+    this(scannableBasePath(site, cfg), config.scanThreads());
+  }
+
+  BasePathScanner(Path basePath, int threads) {
+    this.basePath = basePath;
+    this.threads = threads;
+  }
+
+  private static Path scannableBasePath(SitePaths site, Config cfg) {
+    String basePath = cfg.getString("gerrit", null, "basePath");
+    if (basePath == null) {
+      return null;
+    }
+    for (String repository : cfg.getSubsections("repository")) {
+      if (cfg.getString("repository", repository, "basePath") != null) {
+        return null;
+      }
+    }
+    return site.resolve(basePath);
+  }
+
+  boolean isEnabled() {
+    return basePath != null && threads > 0;
+  }
+
+  /** Returns the names of all projects below {@code gerrit.basePath}. */
+  List<Project.NameKey> scan() throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      Object fileKey = Files.readAttributes(basePath, BasicFileAttributes.class).fileKey();
+      return pool.invoke(new ScanTask(basePath, fileKey, null));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private class ScanTask extends RecursiveTask<List<Project.NameKey>> {
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+    private final Object fileKey;
+    private final ScanTask parent;
+
+    ScanTask(Path dir, Object fileKey, ScanTask parent) {
+      this.dir = dir;
+      this.fileKey = fileKey;
+      this.parent = parent;
+    }
+
+    /** Whether a symbolic link to {@code key} leads back to this directory or an ancestor. */
+    private boolean isLoop(Object key) {
+      for (ScanTask t = this; t != null; t = t.parent) {
+        if (key != null && key.equals(t.fileKey)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    protected List<Project.NameKey> compute() {
+      List<Project.NameKey> projects = new ArrayList<>();
+      List<ScanTask> subdirs = new ArrayList<>();
+      try {
+        // Depth 1 visits the entries of dir with the attributes read while listing it, of the
+        // targets of symbolic links.
+        Files.walkFileTree(
+            dir,
+            FOLLOW_LINKS,
+            1,
+            new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+                if (!attrs.isDirectory()
+                    || Constants.DOT_GIT.equals(p.getFileName().toString())
+                    || isLoop(attrs.fileKey())) {
+                  return FileVisitResult.CONTINUE;
+                }
+                if (isBareRepository(p)) {
+                  projects.add(Project.nameKey(projectName(p)));
+                } else {
+                  subdirs.add(new ScanTask(p, attrs.fileKey(), ScanTask.this));
+                }
+                return FileVisitResult.CONTINUE;
+              }
+
+              @Override
+              public FileVisitResult visitFileFailed(Path p, IOException e) throws IOException {
+                if (p.equals(dir)) {
+                  throw e;
+                }
+                // Deleted while listing dir.
+                return FileVisitResult.CONTINUE;
+              }
+            });
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      for (ScanTask task : invokeAll(subdirs)) {
+        projects.addAll(task.join());
+      }
+      return projects;
+    }
+  }
+
+  private static boolean isBareRepository(Path dir) {
+    return Files.isRegularFile(dir.resolve(Constants.HEAD))
+        && Files.isDirectory(dir.resolve(Constants.OBJECTS));
+  }
+
+  private String projectName(Path repository) {
+    String name = basePath.relativize(repository).toString().replace('\\', '/');
+    return name.endsWith(DOT_GIT) ? name.substring(0, name.length() - DOT_GIT.length()) : name;
+  }
+}
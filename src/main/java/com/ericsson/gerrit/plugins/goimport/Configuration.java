@@ -0,0 +1,177 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Settings of the {@code [plugin "go-import"]} section of {@code gerrit.config}, and of the vanity
+ * hosts configured in {@code go-import.config}.
+ */
+@Singleton
+class Configuration {
+  static final String PROXY = "proxy";
+  static final String ZIP_CACHE_SIZE = "zipCacheSize";
+  static final String SCAN_THREADS = "scanThreads";
+  static final String REFRESH_AFTER = "refreshAfter";
+  static final String RATE_LIMIT = "rateLimit";
+  static final String RATE_LIMIT_BURST = "rateLimitBurst";
+  static final String MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+  static final String SLOW_REQUEST_THRESHOLD = "slowRequestThreshold";
+  static final String PER_PROJECT_METRICS = "perProjectMetrics";
+  static final String HOST = "host";
+  static final String IMPORT_PREFIX = "importPrefix";
+  static final String PROJECT_ROOT = "projectRoot";
+  static final String CLONE_URL = "cloneUrl";
+
+  /**
+   * A {@code [host "<name>"]} section: go-get requests sent with that {@code Host} header are
+   * served under another import prefix, for the projects below another root.
+   */
+  static class VanityHost {
+    final String name;
+    final String importPrefix;
+    final String projectRoot;
+    final String cloneUrl;
+
+    VanityHost(String name, String importPrefix, String projectRoot, String cloneUrl) {
+      this.name = name;
+      this.importPrefix = importPrefix;
+      this.projectRoot = projectRoot;
+      this.cloneUrl = cloneUrl;
+    }
+  }
+
+  private static final long DEFAULT_ZIP_CACHE_SIZE = 1L << 30;
+
+  private final String pluginName;
+  private final boolean proxyEnabled;
+  private final long zipCacheSize;
+  private final int scanThreads;
+  private final long refreshAfterNanos;
+  private final int rateLimit;
+  private final int rateLimitBurst;
+  private final int maxConcurrentRequests;
+  private final long slowRequestThresholdNanos;
+  private final boolean perProjectMetrics;
+  private final ImmutableList<VanityHost> vanityHosts;
+
+  @Inject
+  Configuration(
+      @GerritServerConfig Config cfg,
+      PluginConfigFactory cfgFactory,
+      @PluginName String pluginName) {
+    this(cfg, cfgFactory.getGlobalPluginConfig(pluginName), pluginName);
+  }
+
+  Configuration(Config cfg, String pluginName) {
+    this(cfg, new Config(), pluginName);
+  }
+
+  Configuration(Config cfg, Config pluginCfg, String pluginName) {
+    this.pluginName = pluginName;
+    this.proxyEnabled = cfg.getBoolean("plugin", pluginName, PROXY, false);
+    this.zipCacheSize =
+        cfg.getLong("plugin", pluginName, ZIP_CACHE_SIZE, DEFAULT_ZIP_CACHE_SIZE);
+    this.scanThreads =
+        cfg.getInt(
+            "plugin",
+            pluginName,
+            SCAN_THREADS,
+            Math.min(8, Runtime.getRuntime().availableProcessors()));
+    this.refreshAfterNanos =
+        cfg.getTimeUnit("plugin", pluginName, REFRESH_AFTER, 0, TimeUnit.NANOSECONDS);
+    this.rateLimit = cfg.getInt("plugin", pluginName, RATE_LIMIT, 0);
+    this.rateLimitBurst = cfg.getInt("plugin", pluginName, RATE_LIMIT_BURST, rateLimit);
+    this.maxConcurrentRequests = cfg.getInt("plugin", pluginName, MAX_CONCURRENT_REQUESTS, 0);
+    this.slowRequestThresholdNanos =
+        cfg.getTimeUnit("plugin", pluginName, SLOW_REQUEST_THRESHOLD, 0, TimeUnit.NANOSECONDS);
+    this.perProjectMetrics = cfg.getBoolean("plugin", pluginName, PER_PROJECT_METRICS, false);
+    ImmutableList.Builder<VanityHost> hosts = ImmutableList.builder();
+    for (String name : pluginCfg.getSubsections(HOST)) {
+      hosts.add(
+          new VanityHost(
+              name,
+              pluginCfg.getString(HOST, name, IMPORT_PREFIX),
+              pluginCfg.getString(HOST, name, PROJECT_ROOT),
+              pluginCfg.getString(HOST, name, CLONE_URL)));
+    }
+    this.vanityHosts = hosts.build();
+  }
+
+  String pluginName() {
+    return pluginName;
+  }
+
+  /** Whether go modules are also served through the module proxy protocol. */
+  boolean proxyEnabled() {
+    return proxyEnabled;
+  }
+
+  /** Maximum size in bytes of the module zips kept on disk, 0 to disable the disk cache. */
+  long zipCacheSize() {
+    return zipCacheSize;
+  }
+
+  /** Number of threads listing {@code gerrit.basePath} on startup, 0 to list projects instead. */
+  int scanThreads() {
+    return scanThreads;
+  }
+
+  /**
+   * Age after which a cached anonymous access check is repeated in the background when it is read,
+   * 0 to only check again once the entry expired.
+   */
+  long refreshAfterNanos() {
+    return refreshAfterNanos;
+  }
+
+  /** go-get requests per minute and client, 0 for no limit. */
+  int rateLimit() {
+    return rateLimit;
+  }
+
+  /** go-get requests a client can send at once, within its {@link #rateLimit()}. */
+  int rateLimitBurst() {
+    return rateLimitBurst;
+  }
+
+  /** go-get requests resolved at the same time, 0 for no limit. */
+  int maxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  /** Duration after which a go-get request is logged with its phases, 0 to never log. */
+  long slowRequestThresholdNanos() {
+    return slowRequestThresholdNanos;
+  }
+
+  /** Whether successful go-get requests are counted in one metric series per project. */
+  boolean perProjectMetrics() {
+    return perProjectMetrics;
+  }
+
+  /** Vanity hosts, in the order they are configured. */
+  ImmutableList<VanityHost> vanityHosts() {
+    return vanityHosts;
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.common.Input;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Drops all entries of the caches of the plugin. Go-get requests are served meanwhile, and fill
+ * the caches again.
+ */
+@RequiresCapability(ManageCapability.ID)
+@Singleton
+class FlushCaches implements RestModifyView<ConfigResource, Input> {
+  private final ResponseCache responseCache;
+  private final AnonymousAccessCache anonymousAccessCache;
+  private final MissingProjectCache missingProjectCache;
+
+  @Inject
+  FlushCaches(
+      ResponseCache responseCache,
+      AnonymousAccessCache anonymousAccessCache,
+      MissingProjectCache missingProjectCache) {
+    this.responseCache = responseCache;
+    this.anonymousAccessCache = anonymousAccessCache;
+    this.missingProjectCache = missingProjectCache;
+  }
+
+  @Override
+  public Response<?> apply(ConfigResource resource, Input input) {
+    responseCache.invalidateAll();
+    anonymousAccessCache.invalidateAll();
+    missingProjectCache.invalidateAll();
+    return Response.none();
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.cache.CacheStats;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Reports the size and state of the indexes and caches of the plugin. */
+@RequiresCapability(ManageCapability.ID)
+@Singleton
+class GetStats implements RestReadView<ConfigResource> {
+  static final int TOP_IMPORT_PATHS = 20;
+
+  public static class StatsInfo {
+    public ProjectNameIndexInfo projectNameIndex;
+    public ModuleIndexInfo moduleIndex;
+    public Map<String, CacheInfo> caches;
+    public List<ImportPathInfo> topImportPaths;
+  }
+
+  public static class ProjectNameIndexInfo {
+    public int projects;
+    public boolean loaded;
+    public boolean loading;
+    public long memoryBytes;
+    public Long ageSeconds;
+    public Long snapshotAgeSeconds;
+  }
+
+  public static class ModuleIndexInfo {
+    public int modules;
+    public int pendingScans;
+    public long zipCacheBytes;
+  }
+
+  public static class CacheInfo {
+    public long entries;
+    public long hits;
+    public long misses;
+    public Double hitRatio;
+  }
+
+  public static class ImportPathInfo {
+    public String path;
+    public long requests;
+  }
+
+  private final ProjectNameIndex projectNameIndex;
+  private final ProjectNameIndexUpdater projectNameIndexUpdater;
+  private final ModuleIndex moduleIndex;
+  private final ModuleIndexer moduleIndexer;
+  private final ModuleZipCache moduleZipCache;
+  private final ResponseCache responseCache;
+  private final AnonymousAccessCache anonymousAccessCache;
+  private final MissingProjectCache missingProjectCache;
+  private final TopImportPaths topImportPaths;
+
+  @Inject
+  GetStats(
+      ProjectNameIndex projectNameIndex,
+      ProjectNameIndexUpdater projectNameIndexUpdater,
+      ModuleIndex moduleIndex,
+      ModuleIndexer moduleIndexer,
+      ModuleZipCache moduleZipCache,
+      ResponseCache responseCache,
+      AnonymousAccessCache anonymousAccessCache,
+      MissingProjectCache missingProjectCache,
+      TopImportPaths topImportPaths) {
+    this.projectNameIndex = projectNameIndex;
+    this.projectNameIndexUpdater = projectNameIndexUpdater;
+    this.moduleIndex = moduleIndex;
+    this.moduleIndexer = moduleIndexer;
+    this.moduleZipCache = moduleZipCache;
+    this.responseCache = responseCache;
+    this.anonymousAccessCache = anonymousAccessCache;
+    this.missingProjectCache = missingProjectCache;
+    this.topImportPaths = topImportPaths;
+  }
+
+  @Override
+  public Response<StatsInfo> apply(ConfigResource resource) {
+    Instant now = Instant.now();
+    StatsInfo stats = new StatsInfo();
+
+    stats.projectNameIndex = new ProjectNameIndexInfo();
+    stats.projectNameIndex.projects = projectNameIndex.size();
+    stats.projectNameIndex.loaded = projectNameIndex.isLoaded();
+    stats.projectNameIndex.loading = projectNameIndexUpdater.isLoading();
+    stats.projectNameIndex.memoryBytes = projectNameIndex.estimateBytes();
+    stats.projectNameIndex.ageSeconds = ageSeconds(projectNameIndexUpdater.loadedAt(), now);
+    stats.projectNameIndex.snapshotAgeSeconds =
+        ageSeconds(projectNameIndexUpdater.snapshotWrittenAt(), now);
+
+    stats.moduleIndex = new ModuleIndexInfo();
+    stats.moduleIndex.modules = moduleIndex.size();
+    stats.moduleIndex.pendingScans = moduleIndexer.pending();
+    stats.moduleIndex.zipCacheBytes = moduleZipCache.size();
+
+    stats.caches = new LinkedHashMap<>();
+    stats.caches.put(
+        ResponseCache.NAME, cacheInfo(responseCache.size(), responseCache.stats()));
+    stats.caches.put(
+        AnonymousAccessCache.NAME,
+        cacheInfo(anonymousAccessCache.size(), anonymousAccessCache.stats()));
+    stats.caches.put(
+        MissingProjectCache.NAME,
+        cacheInfo(missingProjectCache.size(), missingProjectCache.stats()));
+
+    stats.topImportPaths = new ArrayList<>();
+    for (Map.Entry<String, Long> e : topImportPaths.top(TOP_IMPORT_PATHS).entrySet()) {
+      ImportPathInfo path = new ImportPathInfo();
+      path.path = e.getKey();
+      path.requests = e.getValue();
+      stats.topImportPaths.add(path);
+    }
+    return Response.ok(stats);
+  }
+
+  private static CacheInfo cacheInfo(long entries, CacheStats stats) {
+    CacheInfo info = new CacheInfo();
+    info.entries = entries;
+    info.hits = stats.hitCount();
+    info.misses = stats.missCount();
+    info.hitRatio = stats.requestCount() > 0 ? stats.hitRate() : null;
+    return info;
+  }
+
+  private static Long ageSeconds(Instant time, Instant now) {
+    return time != null ? Duration.between(time, now).getSeconds() : null;
+  }
+}
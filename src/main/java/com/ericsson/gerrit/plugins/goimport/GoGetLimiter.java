@@ -0,0 +1,143 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the go-get requests served per client, and in total at the same time.
+ *
+ * <p>Every client has a token bucket of {@link Configuration#rateLimitBurst()} requests, refilled
+ * at {@link Configuration#rateLimit()} requests per minute. A bucket is a single atomic timestamp,
+ * the time at which it would be full again, that is advanced with compare-and-set. Buckets are kept
+ * in a bounded map with one lock per segment, and expire once they would be full again.
+ *
+ * <p>At most {@link Configuration#maxConcurrentRequests()} requests are resolved at the same time.
+ * Requests beyond are rejected instead of queued, so that they do not hold on to HTTP threads.
+ */
+@Singleton
+class GoGetLimiter {
+  @VisibleForTesting static final int MAX_CLIENTS = 65536;
+
+  private final long intervalNanos;
+  private final long toleranceNanos;
+  private final int burst;
+  private final Semaphore concurrent;
+  private final Ticker ticker;
+  private final Cache<String, AtomicLong> buckets;
+
+  @Inject
+  GoGetLimiter(Configuration config) {
+    this(
+        config.rateLimit(),
+        config.rateLimitBurst(),
+        config.maxConcurrentRequests(),
+        Ticker.systemTicker());
+  }
+
+  /**
+   * @param rateLimit requests per minute and client, 0 for no limit.
+   * @param burst requests a client can send at once.
+   * @param maxConcurrent requests resolved at the same time, 0 for no limit.
+   */
+  @VisibleForTesting
+  GoGetLimiter(int rateLimit, int burst, int maxConcurrent, Ticker ticker) {
+    this.intervalNanos = rateLimit > 0 ? TimeUnit.MINUTES.toNanos(1) / rateLimit : 0;
+    this.burst = Math.max(burst, 1);
+    this.toleranceNanos = intervalNanos * (this.burst - 1);
+    this.concurrent = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    this.ticker = ticker;
+    this.buckets =
+        intervalNanos > 0
+            ? CacheBuilder.newBuilder()
+                .maximumSize(MAX_CLIENTS)
+                .expireAfterAccess(toleranceNanos + intervalNanos, TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .build()
+            : null;
+  }
+
+  /** Whether requests are limited per client, that is whether {@link #checkRate} can fail. */
+  boolean isRateLimited() {
+    return buckets != null;
+  }
+
+  /**
+   * Takes a token from the bucket of {@code client}.
+   *
+   * @return 0 if the request may proceed, or else the nanoseconds until the client may send its
+   *     next request.
+   */
+  long checkRate(String client) {
+    return checkRate(client, 1);
+  }
+
+  /**
+   * Takes {@code requests} tokens from the bucket of {@code client}, at most as many as it holds
+   * when full, for a call that resolves several import paths at once.
+   *
+   * @return 0 if the call may proceed, or else the nanoseconds until the client may send it again.
+   */
+  long checkRate(String client, int requests) {
+    if (buckets == null) {
+      return 0;
+    }
+    long cost = intervalNanos * (Math.min(Math.max(requests, 1), burst) - 1);
+    long now = ticker.read();
+    AtomicLong fullAt = buckets.getIfPresent(client);
+    if (fullAt == null) {
+      AtomicLong created = new AtomicLong(now);
+      fullAt = buckets.asMap().putIfAbsent(client, created);
+      if (fullAt == null) {
+        fullAt = created;
+      }
+    }
+    while (true) {
+      long current = fullAt.get();
+      long base = Math.max(current, now);
+      long wait = base + cost - now - toleranceNanos;
+      if (wait > 0) {
+        return wait;
+      }
+      if (fullAt.compareAndSet(current, base + cost + intervalNanos)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Enters the resolution path.
+   *
+   * @return whether the request may be resolved; if so, {@link #release()} must be called once it
+   *     is done.
+   */
+  boolean tryAcquire() {
+    return concurrent == null || concurrent.tryAcquire();
+  }
+
+  void release() {
+    if (concurrent != null) {
+      concurrent.release();
+    }
+  }
+}
@@ -0,0 +1,208 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.server.logging.LoggingContext;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the phases of go-get requests, and logs the requests that took longer than {@link
+ * Configuration#slowRequestThresholdNanos()}.
+ *
+ * <p>While the request is traced, or reported to {@code PerformanceLogger} plugins, every phase is
+ * also timed with a {@link TraceContext} timer. Traces are reused per thread, so timing a request
+ * below the threshold costs a few {@link System#nanoTime()} calls and allocates nothing; nothing is
+ * formatted unless the request is logged. Without a threshold and while the request is not traced,
+ * phases are not timed at all.
+ */
+@Singleton
+class GoGetTracer {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Phases of a go-get request, in the order they run. */
+  enum Phase {
+    /** Finding the most specific project, in the index or by probing the project cache. */
+    PROJECT_LOOKUP("go-import: lookup project"),
+    /** Checking whether anonymous users can read the project. */
+    PERMISSION_CHECK("go-import: check anonymous access"),
+    /** Rendering the go-import content, or reading it from the response cache. */
+    RENDER("go-import: render response"),
+    /** Waiting for an identical request that was already being resolved. */
+    COALESCED_WAIT("go-import: wait for identical request"),
+    /** Writing the response to the client. */
+    WRITE("go-import: write response");
+
+    private final String operation;
+
+    Phase(String operation) {
+      this.operation = operation;
+    }
+  }
+
+  /**
+   * Phases of one go-get request. Phases do not overlap: a phase is started with {@link
+   * #start(Phase)} and ends when the trace is closed.
+   */
+  static class Trace implements AutoCloseable {
+    /** Trace of the requests whose phases are not timed; it records nothing. */
+    static final Trace DISABLED = new Trace(false);
+
+    private final boolean enabled;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private String path;
+    private boolean timed;
+    private Phase phase;
+    private long phaseStart;
+    private TraceTimer timer;
+    private int probes;
+    private String project;
+
+    @VisibleForTesting
+    Trace() {
+      this(true);
+    }
+
+    private Trace(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    /** Prepares the trace for a new request for {@code path}. */
+    @VisibleForTesting
+    Trace reset(String path, boolean timed) {
+      this.path = path;
+      this.timed = timed;
+      Arrays.fill(phaseNanos, 0);
+      probes = 0;
+      project = null;
+      return this;
+    }
+
+    /** Starts {@code phase}; the phase ends when the returned trace is closed. */
+    Trace start(Phase phase) {
+      if (enabled) {
+        this.phase = phase;
+        if (timed) {
+          timer = TraceContext.newTimer(phase.operation);
+        }
+        phaseStart = System.nanoTime();
+      }
+      return this;
+    }
+
+    @Override
+    public void close() {
+      if (enabled) {
+        phaseNanos[phase.ordinal()] += System.nanoTime() - phaseStart;
+        if (timer != null) {
+          timer.close();
+          timer = null;
+        }
+      }
+    }
+
+    /** Records the number of project cache lookups done to find the project. */
+    void setProbes(int probes) {
+      if (enabled) {
+        this.probes = probes;
+      }
+    }
+
+    void setProject(String project) {
+      if (enabled) {
+        this.project = project;
+      }
+    }
+
+    long nanos(Phase phase) {
+      return phaseNanos[phase.ordinal()];
+    }
+
+    int probes() {
+      return probes;
+    }
+
+    String project() {
+      return project;
+    }
+  }
+
+  private final long slowRequestThresholdNanos;
+  private final ThreadLocal<Trace> traces = ThreadLocal.withInitial(Trace::new);
+
+  @Inject
+  GoGetTracer(Configuration config) {
+    this(config.slowRequestThresholdNanos());
+  }
+
+  @VisibleForTesting
+  GoGetTracer(long slowRequestThresholdNanos) {
+    this.slowRequestThresholdNanos = slowRequestThresholdNanos;
+  }
+
+  /**
+   * Starts the trace of a go-get request for {@code path}. The trace belongs to the current thread
+   * and must not be used after {@link #finish}.
+   */
+  Trace start(String path) {
+    boolean timed = isTraced();
+    if (slowRequestThresholdNanos <= 0 && !timed) {
+      return Trace.DISABLED;
+    }
+    return traces.get().reset(path, timed);
+  }
+
+  boolean isSlow(long elapsedNanos) {
+    return slowRequestThresholdNanos > 0 && elapsedNanos >= slowRequestThresholdNanos;
+  }
+
+  /** Logs the phases of {@code trace} if the request took longer than the threshold. */
+  void finish(Trace trace, int status, long elapsedNanos) {
+    if (trace == Trace.DISABLED || !isSlow(elapsedNanos)) {
+      return;
+    }
+    logger.atWarning().log(
+        "Slow go-get request %s: %s ms, status %d, project %s, %d project cache probes;"
+            + " lookup %s ms, permission check %s ms, render %s ms, coalesced wait %s ms,"
+            + " write %s ms",
+        trace.path,
+        millis(elapsedNanos),
+        status,
+        trace.project,
+        trace.probes,
+        millis(trace.nanos(Phase.PROJECT_LOOKUP)),
+        millis(trace.nanos(Phase.PERMISSION_CHECK)),
+        millis(trace.nanos(Phase.RENDER)),
+        millis(trace.nanos(Phase.COALESCED_WAIT)),
+        millis(trace.nanos(Phase.WRITE)));
+  }
+
+  /** Whether the request is traced or reported to {@code PerformanceLogger} plugins. */
+  private static boolean isTraced() {
+    LoggingContext loggingContext = LoggingContext.getInstance();
+    return loggingContext.isLoggingForced() || loggingContext.isPerformanceLogging();
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+}
@@ -16,29 +16,21 @@ package com.ericsson.gerrit.plugins.goimport;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
-import com.google.gerrit.entities.BranchNameKey;
-import com.google.gerrit.entities.Project;
-import com.google.gerrit.entities.RefNames;
+import com.google.common.base.Ticker;
+import com.google.common.net.HttpHeaders;
 import com.google.gerrit.httpd.AllRequestFilter;
 import com.google.gerrit.httpd.HtmlDomUtil;
-import com.google.gerrit.server.AnonymousUser;
-import com.google.gerrit.server.config.CanonicalWebUrl;
-import com.google.gerrit.server.permissions.PermissionBackend;
-import com.google.gerrit.server.permissions.RefPermission;
-import com.google.gerrit.server.project.ProjectCache;
-import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.util.http.CacheHeaders;
 import com.google.inject.Inject;
-import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Optional;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
@@ -80,30 +72,111 @@ public class GoImportFilter extends AllRequestFilter {
           + "</body>\n"
           + "</html>";
 
-  private static final Pattern AUTHENTICATED_REQ = Pattern.compile("^/a/.*");
-  private final Provider<AnonymousUser> anonProvider;
-  private final PermissionBackend permissions;
-  private final ProjectCache projectCache;
-  final String webUrl;
-  final String projectPrefix;
+  // The pages are split once into their static parts so that a response is written without
+  // copying the template: 200 responses are prefix, go-import content and suffix.
+  private static final byte[] PAGE_200_PREFIX =
+      PAGE_200.substring(0, PAGE_200.indexOf(CONTENT_PLH)).getBytes(HtmlDomUtil.ENC);
+  private static final byte[] PAGE_200_SUFFIX =
+      PAGE_200.substring(PAGE_200.indexOf(CONTENT_PLH) + CONTENT_PLH.length())
+          .getBytes(HtmlDomUtil.ENC);
+  private static final byte[] PAGE_404_BYTES = PAGE_404.getBytes(HtmlDomUtil.ENC);
+
+  // Closes the go-import meta tag of the template and opens another one, for the module proxy.
+  private static final String NEXT_GO_IMPORT = "\"/>\n  <meta name=\"go-import\" content=\"";
+
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+  private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long OVERLOADED_RETRY_NANOS = SECOND_NANOS;
+
+  private static final String GO_GET_PARAMETER = "go-get=1";
+  private static final String AUTHENTICATED_PREFIX = "/" + GoImportResolver.AUTHENTICATED_PATH;
+
+  // Gerrit endpoints that never serve go-get content, even if go-get=1 is appended.
+  private static final String[] SKIPPED_PREFIXES = {"/a/changes/", "/changes/", "/static/"};
+  private static final String[] SKIPPED_SUFFIXES = {"/git-upload-pack", "/info/refs"};
+
+  /** A go-get request, as far as its response is concerned. */
+  private static class Request {
+    final GoImportResolver.Host host;
+    final String path;
+    final boolean authenticated;
+
+    Request(GoImportResolver.Host host, String path, boolean authenticated) {
+      this.host = host;
+      this.path = path;
+      this.authenticated = authenticated;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof Request) {
+        Request other = (Request) o;
+        return host == other.host
+            && path.equals(other.path)
+            && authenticated == other.authenticated;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      // Computed by hand: Objects.hash would allocate and box on every go-get request.
+      return 31 * (31 * System.identityHashCode(host) + path.hashCode())
+          + Boolean.hashCode(authenticated);
+    }
+  }
+
+  /** Outcome of a go-get request. */
+  private static class Lookup {
+    static final Lookup NOT_FOUND = new Lookup(null, null);
+
+    final String project;
+    final byte[] content;
+
+    Lookup(String project, byte[] content) {
+      this.project = project;
+      this.content = content;
+    }
+  }
+
+  private final GoImportResolver resolver;
+  private final ResponseCache responseCache;
+  private final GoImportMetrics metrics;
+  private final GoGetLimiter limiter;
+  private final TopImportPaths topImportPaths;
+  private final GoGetTracer tracer;
+
+  // Requests being resolved; identical concurrent requests wait for the same result.
+  private final ConcurrentMap<Request, CompletableFuture<Lookup>> inFlight =
+      new ConcurrentHashMap<>();
 
   @Inject
   GoImportFilter(
-      Provider<AnonymousUser> anonProvider,
-      PermissionBackend permissions,
-      ProjectCache projectCache,
-      @CanonicalWebUrl String webUrl)
-      throws URISyntaxException {
-    this.anonProvider = anonProvider;
-    this.permissions = permissions;
-    this.projectCache = projectCache;
-    this.webUrl = webUrl.replaceFirst("/?$", "/");
-    this.projectPrefix = generateProjectPrefix();
+      GoImportResolver resolver,
+      ResponseCache responseCache,
+      GoImportMetrics metrics,
+      GoGetLimiter limiter,
+      TopImportPaths topImportPaths,
+      GoGetTracer tracer) {
+    this.resolver = resolver;
+    this.responseCache = responseCache;
+    this.metrics = metrics;
+    this.limiter = limiter;
+    this.topImportPaths = topImportPaths;
+    this.tracer = tracer;
   }
 
-  private String generateProjectPrefix() throws URISyntaxException {
-    URI uri = new URI(webUrl);
-    return uri.getHost() + (uri.getPort() == -1 ? "" : ":" + uri.getPort()) + uri.getPath();
+  GoImportFilter(
+      GoImportResolver resolver,
+      ResponseCache responseCache,
+      GoImportMetrics metrics,
+      GoGetLimiter limiter) {
+    this(resolver, responseCache, metrics, limiter, new TopImportPaths(), new GoGetTracer(0));
+  }
+
+  /** Creates a filter that does not limit requests. */
+  GoImportFilter(GoImportResolver resolver, ResponseCache responseCache, GoImportMetrics metrics) {
+    this(resolver, responseCache, metrics, new GoGetLimiter(0, 0, 0, Ticker.systemTicker()));
   }
 
   @Override
@@ -112,37 +185,33 @@ public class GoImportFilter extends AllRequestFilter {
     if (request instanceof HttpServletRequest) {
       HttpServletRequest req = (HttpServletRequest) request;
       HttpServletResponse rsp = (HttpServletResponse) response;
-      if ("1".equals(req.getParameter("go-get"))) {
-        boolean authenticated = AUTHENTICATED_REQ.matcher(req.getServletPath()).matches();
-        // For authenticated requests remove prefix "/a" to get project name.
-        String path =
-            authenticated ? req.getServletPath().replaceFirst("^/a/", "/") : req.getServletPath();
-        // Because Gerrit allows for arbitrary-depth project names
-        // (that is, both "a" and "a/b/c" are both legal), we are going
-        // to find the most specific such project that matches the path.
-        //
-        // For example, assume that we have the following projects:
-        //    a
-        //    a/b
-        // 1. If the requested path is "a", then project "a" would be chosen.
-        // 2. If the requested path is "a/b", then project "a/b" would be chosen.
-        // 3. If the requested path is "a/c", then project "a" would be chosen.
-        // 4. If the requested path is "a/b/c/d", then project "a/b" would be chosen.
-        // 5. If the requested path is "x/y/z", then this will fail with a 404 error.
-        String existent = getLongestMatch(getProjectName(path));
-        byte[] toSend = PAGE_404.getBytes();
-        rsp.setStatus(404);
-        if (!Strings.isNullOrEmpty(existent)) {
-          toSend = PAGE_200.replace(CONTENT_PLH, getContent(existent, authenticated)).getBytes();
-          rsp.setStatus(200);
-        }
-        CacheHeaders.setNotCacheable(rsp);
-        rsp.setContentType("text/html");
-        rsp.setCharacterEncoding(HtmlDomUtil.ENC.name());
-        rsp.setContentLength(toSend.length);
-        try (OutputStream out = rsp.getOutputStream()) {
-          out.write(toSend);
+      if (isGoGetRequest(req)) {
+        long start = System.nanoTime();
+        String path = req.getServletPath();
+        boolean authenticated = path.startsWith(AUTHENTICATED_PREFIX);
+        GoGetTracer.Trace trace = tracer.start(path);
+        int status;
+        // The client key is only built if needed, not to allocate on every request.
+        long wait = limiter.isRateLimited() ? limiter.checkRate(client(req)) : 0;
+        if (wait > 0) {
+          status = reject(rsp, SC_TOO_MANY_REQUESTS, wait, GoImportMetrics.RATE_LIMITED);
+        } else if (!limiter.tryAcquire()) {
+          status =
+              reject(
+                  rsp,
+                  HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                  OVERLOADED_RETRY_NANOS,
+                  GoImportMetrics.OVERLOADED);
+        } else {
+          try {
+            status = serve(req, rsp, path, authenticated, trace);
+          } finally {
+            limiter.release();
+          }
         }
+        long elapsed = System.nanoTime() - start;
+        metrics.recordRequest(status, authenticated, elapsed);
+        tracer.finish(trace, status, elapsed);
       } else {
         chain.doFilter(request, response);
       }
@@ -151,49 +220,239 @@ public class GoImportFilter extends AllRequestFilter {
     }
   }
 
-  private String getLongestMatch(String projectName) {
-    Path projectPath = Paths.get(projectName);
-    while (projectPath.getNameCount() >= 1) {
-      String asString = projectPath.toString();
-      if (projectExists(asString)) {
-        return asString;
+  private int serve(
+      HttpServletRequest req,
+      HttpServletResponse rsp,
+      String path,
+      boolean authenticated,
+      GoGetTracer.Trace trace)
+      throws IOException {
+    GoImportResolver.Host host = resolver.host(req.getHeader(HttpHeaders.HOST));
+    String project = null;
+    byte[] content = null;
+    boolean indexed = resolver.isIndexLoaded();
+    if (indexed) {
+      // Finding the project is cheap with the index, so responses already cached are served
+      // without going through the single-flight path and allocating for it.
+      try (GoGetTracer.Trace t = trace.start(GoGetTracer.Phase.PROJECT_LOOKUP)) {
+        project = resolver.getLongestMatch(host, getProjectName(path, authenticated), trace);
       }
-      projectPath = projectPath.getParent();
-      if (projectPath == null) {
-        break;
+      if (project != null) {
+        content = cachedContent(host, project, authenticated, trace);
       }
     }
-    return null;
+    if (content == null && (project != null || !indexed)) {
+      Lookup lookup = lookup(new Request(host, path, authenticated), project, trace);
+      project = lookup.project;
+      content = lookup.content;
+    }
+    if (content != null) {
+      trace.setProject(project);
+      metrics.recordResolvedProject(project);
+      topImportPaths.record(importPath(host, getProjectName(path, authenticated)));
+    }
+    CacheHeaders.setNotCacheable(rsp);
+    rsp.setContentType("text/html");
+    rsp.setCharacterEncoding(HtmlDomUtil.ENC.name());
+    if (content != null) {
+      rsp.setStatus(200);
+      rsp.setContentLength(PAGE_200_PREFIX.length + content.length + PAGE_200_SUFFIX.length);
+    } else {
+      rsp.setStatus(404);
+      rsp.setContentLength(PAGE_404_BYTES.length);
+    }
+    if (!"HEAD".equals(req.getMethod())) {
+      try (GoGetTracer.Trace t = trace.start(GoGetTracer.Phase.WRITE);
+          OutputStream out = rsp.getOutputStream()) {
+        if (content != null) {
+          out.write(PAGE_200_PREFIX);
+          out.write(content);
+          out.write(PAGE_200_SUFFIX);
+        } else {
+          out.write(PAGE_404_BYTES);
+        }
+      }
+    }
+    return content != null ? 200 : 404;
   }
 
-  private String getProjectName(String servletPath) {
-    return servletPath.replaceFirst("/", "");
+  private int reject(HttpServletResponse rsp, int status, long retryNanos, String reason) {
+    metrics.recordRejectedRequest(reason);
+    CacheHeaders.setNotCacheable(rsp);
+    rsp.setStatus(status);
+    rsp.setHeader(
+        HttpHeaders.RETRY_AFTER,
+        Long.toString(Math.max(1, (retryNanos + SECOND_NANOS - 1) / SECOND_NANOS)));
+    rsp.setContentLength(0);
+    return status;
   }
 
-  private CharSequence getContent(String projectName, boolean authenticated) {
-    return projectPrefix
-        + (authenticated ? "a/" : "")
-        + projectName
-        + " git "
-        + getRepoRoot(projectName, authenticated);
+  /** Returns the key of the rate limit of the request: its user if known, else its address. */
+  private static String client(HttpServletRequest req) {
+    String user = req.getRemoteUser();
+    return user != null ? "user:" + user : Strings.nullToEmpty(req.getRemoteAddr());
   }
 
-  private String getRepoRoot(String projectName, boolean authenticated) {
-    if (allowsAnonymousAccess(projectName) && !authenticated) {
-      return webUrl + projectName;
+  /**
+   * Checks whether {@code req} is a go-get request.
+   *
+   * <p>This runs in front of every Gerrit HTTP request, so only the raw query string is inspected:
+   * asking the container for parameters would make it parse form-encoded request bodies.
+   */
+  private static boolean isGoGetRequest(HttpServletRequest req) {
+    if (!hasGoGetParameter(req.getQueryString())) {
+      return false;
+    }
+    String path = req.getServletPath();
+    for (String prefix : SKIPPED_PREFIXES) {
+      if (path.startsWith(prefix)) {
+        return false;
+      }
     }
-    return webUrl + "a/" + projectName;
+    for (String suffix : SKIPPED_SUFFIXES) {
+      if (path.endsWith(suffix)) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  private boolean allowsAnonymousAccess(String projectName) {
-    AnonymousUser anonymous = anonProvider.get();
-    BranchNameKey heads = BranchNameKey.create(Project.nameKey(projectName), RefNames.REFS_HEADS);
+  @VisibleForTesting
+  static boolean hasGoGetParameter(String queryString) {
+    if (queryString == null) {
+      return false;
+    }
+    int i = queryString.indexOf(GO_GET_PARAMETER);
+    while (i >= 0) {
+      int end = i + GO_GET_PARAMETER.length();
+      if ((i == 0 || queryString.charAt(i - 1) == '&')
+          && (end == queryString.length() || queryString.charAt(end) == '&')) {
+        return true;
+      }
+      i = queryString.indexOf(GO_GET_PARAMETER, end);
+    }
+    return false;
+  }
+
+  private static String getProjectName(String servletPath, boolean authenticated) {
+    // For authenticated requests also remove prefix "/a" to get project name.
+    if (authenticated) {
+      return servletPath.substring(AUTHENTICATED_PREFIX.length());
+    }
+    return servletPath.startsWith("/") ? servletPath.substring(1) : servletPath;
+  }
 
-    return permissions.user(anonymous).ref(heads).testOrFalse(RefPermission.READ);
+  /** Returns {@code path} as import path, prefixed with the vanity host of the request if any. */
+  private static String importPath(GoImportResolver.Host host, String path) {
+    return host.name == null ? path : host.name + "/" + path;
   }
 
-  private boolean projectExists(String projectName) {
-    Optional<ProjectState> p = projectCache.get(Project.nameKey(projectName));
-    return p.isPresent();
+  /**
+   * Resolves {@code request}, or waits for the result of an identical request that is already
+   * being resolved.
+   *
+   * @param project project matching {@code request} if already found, or else {@code null}.
+   */
+  private Lookup lookup(Request request, String project, GoGetTracer.Trace trace)
+      throws IOException {
+    CompletableFuture<Lookup> future = new CompletableFuture<>();
+    CompletableFuture<Lookup> running = inFlight.putIfAbsent(request, future);
+    if (running != null) {
+      metrics.recordCoalescedRequest();
+      try (GoGetTracer.Trace t = trace.start(GoGetTracer.Phase.COALESCED_WAIT)) {
+        return await(running);
+      }
+    }
+    try {
+      Lookup lookup = resolve(request, project, trace);
+      future.complete(lookup);
+      return lookup;
+    } catch (IOException | RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(request, future);
+    }
+  }
+
+  private static Lookup await(CompletableFuture<Lookup> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private Lookup resolve(Request request, String project, GoGetTracer.Trace trace)
+      throws IOException {
+    String existent = project;
+    if (existent == null) {
+      try (GoGetTracer.Trace t = trace.start(GoGetTracer.Phase.PROJECT_LOOKUP)) {
+        existent =
+            resolver.getLongestMatch(
+                request.host, getProjectName(request.path, request.authenticated), trace);
+      }
+    }
+    if (Strings.isNullOrEmpty(existent)) {
+      return Lookup.NOT_FOUND;
+    }
+    return new Lookup(
+        existent, getContentBytes(request.host, existent, request.authenticated, trace));
+  }
+
+  private byte[] getContentBytes(
+      GoImportResolver.Host host,
+      String projectName,
+      boolean authenticated,
+      GoGetTracer.Trace trace)
+      throws IOException {
+    boolean anonymousReadable;
+    try (GoGetTracer.Trace t = trace.start(GoGetTracer.Phase.PERMISSION_CHECK)) {
+      anonymousReadable = resolver.allowsAnonymousAccess(projectName);
+    }
+    try (GoGetTracer.Trace t = trace.start(GoGetTracer.Phase.RENDER)) {
+      return responseCache.get(
+          new ResponseCache.Key(host.name, projectName, authenticated, anonymousReadable),
+          () -> render(resolver.resolve(host, projectName, authenticated, anonymousReadable)));
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** Returns the cached content for {@code projectName}, or {@code null} if it must be rendered. */
+  private byte[] cachedContent(
+      GoImportResolver.Host host,
+      String projectName,
+      boolean authenticated,
+      GoGetTracer.Trace trace) {
+    Boolean anonymousReadable;
+    try (GoGetTracer.Trace t = trace.start(GoGetTracer.Phase.PERMISSION_CHECK)) {
+      anonymousReadable = resolver.cachedAnonymousAccess(projectName);
+    }
+    if (anonymousReadable == null) {
+      return null;
+    }
+    try (GoGetTracer.Trace t = trace.start(GoGetTracer.Phase.RENDER)) {
+      return responseCache.getIfPresent(
+          new ResponseCache.Key(host.name, projectName, authenticated, anonymousReadable));
+    }
+  }
+
+  private static byte[] render(GoImportResolver.Resolution resolution) {
+    String content = resolution.content();
+    String modContent = resolution.modContent();
+    if (modContent != null) {
+      // In module mode the go command prefers the "mod" entry over the "git" one.
+      content = content + NEXT_GO_IMPORT + modContent;
+    }
+    return content.getBytes(HtmlDomUtil.ENC);
   }
 }
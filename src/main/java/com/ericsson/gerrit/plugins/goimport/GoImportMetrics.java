@@ -0,0 +1,184 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.metrics.Timer2;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/** Metrics of go-get request handling, exported under {@code plugins/go-import/}. */
+@Singleton
+class GoImportMetrics {
+  static final String ANONYMOUS = "anonymous";
+  static final String AUTHENTICATED = "authenticated";
+  static final String REFRESH_DONE = "refreshed";
+  static final String REFRESH_DISCARDED = "discarded";
+  static final String REFRESH_FAILED = "failed";
+  static final String REFRESH_SKIPPED = "skipped";
+  static final String RATE_LIMITED = "rate_limited";
+  static final String OVERLOADED = "overloaded";
+
+  private final Timer2<Integer, String> requestLatency;
+  private final Histogram0 probes;
+  private final Timer0 projectCacheLatency;
+  private final Timer0 permissionLatency;
+  private final Counter1<String> requestsPerProject;
+  private final Counter0 coalescedRequests;
+  private final Counter1<String> accessRefreshes;
+  private final Counter1<String> rejectedRequests;
+  private final Timer0 accessStaleness;
+
+  @Inject
+  GoImportMetrics(MetricMaker metricMaker, Configuration config) {
+    this(metricMaker, config.perProjectMetrics());
+  }
+
+  /** Creates metrics without the per-project request counter. */
+  GoImportMetrics(MetricMaker metricMaker) {
+    this(metricMaker, false);
+  }
+
+  private GoImportMetrics(MetricMaker metricMaker, boolean perProject) {
+    requestLatency =
+        metricMaker.newTimer(
+            "go_get/latency",
+            new Description("Latency of go-get requests")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofInteger("status", Metadata.Builder::httpStatus)
+                .description("HTTP status code of the response")
+                .build(),
+            Field.ofString("auth_mode", (metadataBuilder, fieldValue) -> {})
+                .description("Whether the request was anonymous or authenticated (/a/)")
+                .build());
+    probes =
+        metricMaker.newHistogram(
+            "go_get/project_cache_probes",
+            new Description(
+                    "Project cache lookups needed to resolve a go-get request;"
+                        + " 0 when answered from the project name index")
+                .setCumulative()
+                .setUnit("probes"));
+    projectCacheLatency =
+        metricMaker.newTimer(
+            "go_get/project_cache_latency",
+            new Description("Latency of project cache lookups made for go-get requests")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    permissionLatency =
+        metricMaker.newTimer(
+            "go_get/permission_check_latency",
+            new Description("Latency of anonymous read permission checks")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    if (perProject) {
+      // One series per project that was ever requested, which is never released.
+      requestsPerProject =
+          metricMaker.newCounter(
+              "go_get/requests_per_project",
+              new Description("Successful go-get requests per resolved project")
+                  .setRate()
+                  .setUnit("requests"),
+              Field.ofString("project", Metadata.Builder::projectName)
+                  .description("Resolved project")
+                  .build());
+    } else {
+      requestsPerProject = null;
+    }
+    coalescedRequests =
+        metricMaker.newCounter(
+            "go_get/coalesced_requests",
+            new Description("go-get requests answered by an identical request in flight")
+                .setRate()
+                .setUnit("requests"));
+    accessRefreshes =
+        metricMaker.newCounter(
+            "go_get/anonymous_access_refreshes",
+            new Description("Background refreshes of stale anonymous access cache entries")
+                .setRate()
+                .setUnit("refreshes"),
+            Field.ofString("result", (metadataBuilder, fieldValue) -> {})
+                .description(
+                    "refreshed, discarded if the entry was invalidated meanwhile, failed, or"
+                        + " skipped if too many refreshes were pending")
+                .build());
+    rejectedRequests =
+        metricMaker.newCounter(
+            "go_get/rejected_requests",
+            new Description("go-get requests rejected without being resolved")
+                .setRate()
+                .setUnit("requests"),
+            Field.ofString("reason", (metadataBuilder, fieldValue) -> {})
+                .description(
+                    "rate_limited if the client exceeded its rate (429), overloaded if too many"
+                        + " requests were resolved at the same time (503)")
+                .build());
+    accessStaleness =
+        metricMaker.newTimer(
+            "go_get/anonymous_access_staleness",
+            new Description("Age of the stale anonymous access cache entries that were served")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+  }
+
+  void recordRequest(int status, boolean authenticated, long elapsedNanos) {
+    requestLatency.record(
+        status, authenticated ? AUTHENTICATED : ANONYMOUS, elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  void recordProbes(int count) {
+    probes.record(count);
+  }
+
+  void recordResolvedProject(String projectName) {
+    if (requestsPerProject != null) {
+      requestsPerProject.increment(projectName);
+    }
+  }
+
+  void recordCoalescedRequest() {
+    coalescedRequests.increment();
+  }
+
+  void recordRejectedRequest(String reason) {
+    rejectedRequests.increment(reason);
+  }
+
+  void recordAccessRefresh(String result) {
+    accessRefreshes.increment(result);
+  }
+
+  void recordStaleAccess(long ageNanos) {
+    accessStaleness.record(ageNanos, TimeUnit.NANOSECONDS);
+  }
+
+  Timer0.Context startProjectCacheLookup() {
+    return projectCacheLatency.start();
+  }
+
+  Timer0.Context startPermissionCheck() {
+    return permissionLatency.start();
+  }
+}
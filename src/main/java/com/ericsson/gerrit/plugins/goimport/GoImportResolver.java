@@ -0,0 +1,352 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.CanonicalWebUrl;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/** Resolves go import paths to the Gerrit project serving them. */
+@Singleton
+class GoImportResolver {
+  static final String AUTHENTICATED_PATH = "a/";
+
+  /** Outcome of resolving an import path to an existing project. */
+  static class Resolution {
+    final String project;
+    final String importPrefix;
+    final String repoRoot;
+    final boolean anonymous;
+    final String proxyUrl;
+
+    Resolution(
+        String project, String importPrefix, String repoRoot, boolean anonymous, String proxyUrl) {
+      this.project = project;
+      this.importPrefix = importPrefix;
+      this.repoRoot = repoRoot;
+      this.anonymous = anonymous;
+      this.proxyUrl = proxyUrl;
+    }
+
+    /** Returns the content of the {@code go-import} meta tag. */
+    String content() {
+      return importPrefix + " git " + repoRoot;
+    }
+
+    /**
+     * Returns the content of the {@code go-import} meta tag advertising the module proxy, or
+     * {@code null} if the module proxy is disabled.
+     */
+    String modContent() {
+      return proxyUrl == null ? null : importPrefix + " mod " + proxyUrl;
+    }
+  }
+
+  /**
+   * A host name under which go import paths are served.
+   *
+   * <p>An import path is the import prefix of its host followed by a path that, prefixed with the
+   * project root, is in the project namespace. Hosts are compiled once, so that routing a request
+   * is a map lookup and building a response is string concatenation.
+   */
+  static class Host {
+    /** {@code Host} header of the requests, or {@code null} for the canonical web URL. */
+    final String name;
+
+    /** Root of the served projects, empty or ending with '/'. */
+    final String projectRoot;
+
+    private final String importPrefix;
+    private final String authenticatedImportPrefix;
+    private final String cloneUrl;
+    private final String authenticatedCloneUrl;
+
+    Host(String name, String importPrefix, String projectRoot, String cloneUrl) {
+      this.name = name;
+      this.importPrefix = withSlash(importPrefix);
+      this.authenticatedImportPrefix = this.importPrefix + AUTHENTICATED_PATH;
+      this.projectRoot = Strings.isNullOrEmpty(projectRoot) ? "" : withSlash(projectRoot);
+      this.cloneUrl = withSlash(cloneUrl);
+      this.authenticatedCloneUrl = this.cloneUrl + AUTHENTICATED_PATH;
+    }
+
+    private static String withSlash(String s) {
+      return CharMatcher.is('/').trimTrailingFrom(s) + "/";
+    }
+
+    String importPrefix(boolean authenticated) {
+      return authenticated ? authenticatedImportPrefix : importPrefix;
+    }
+
+    String cloneUrl(boolean anonymous) {
+      return anonymous ? cloneUrl : authenticatedCloneUrl;
+    }
+
+    /** Returns the project path of {@code path}, relative to the import prefix. */
+    String projectPath(String path) {
+      return projectRoot + path;
+    }
+
+    /** Whether {@code project} is below the project root and thus served under this host. */
+    boolean serves(String project) {
+      return project.length() > projectRoot.length() && project.startsWith(projectRoot);
+    }
+  }
+
+  private final ProjectCache projectCache;
+  private final ProjectNameIndex projectNameIndex;
+  private final MissingProjectCache missingProjects;
+  private final AnonymousAccessCache anonymousAccess;
+  private final GoImportMetrics metrics;
+  private final Configuration config;
+  final String webUrl;
+  final String projectPrefix;
+  final Host defaultHost;
+
+  /** Vanity hosts by lower case {@code Host} header. */
+  private final ImmutableMap<String, Host> hostsByName;
+
+  /** All hosts, longest import prefix first. */
+  private final ImmutableList<Host> hostsByPrefix;
+
+  @Inject
+  GoImportResolver(
+      ProjectCache projectCache,
+      ProjectNameIndex projectNameIndex,
+      MissingProjectCache missingProjects,
+      AnonymousAccessCache anonymousAccess,
+      GoImportMetrics metrics,
+      Configuration config,
+      @CanonicalWebUrl String webUrl)
+      throws URISyntaxException {
+    this.projectCache = projectCache;
+    this.projectNameIndex = projectNameIndex;
+    this.missingProjects = missingProjects;
+    this.anonymousAccess = anonymousAccess;
+    this.metrics = metrics;
+    this.config = config;
+    this.webUrl = webUrl.replaceFirst("/?$", "/");
+    this.projectPrefix = generateProjectPrefix();
+    this.defaultHost = new Host(null, projectPrefix, "", this.webUrl);
+
+    ImmutableMap.Builder<String, Host> byName = ImmutableMap.builder();
+    List<Host> all = new ArrayList<>();
+    all.add(defaultHost);
+    for (Configuration.VanityHost h : config.vanityHosts()) {
+      Host host =
+          new Host(
+              Ascii.toLowerCase(h.name),
+              h.importPrefix != null ? h.importPrefix : h.name,
+              h.projectRoot,
+              h.cloneUrl != null ? h.cloneUrl : this.webUrl);
+      byName.put(host.name, host);
+      all.add(host);
+    }
+    this.hostsByName = byName.build();
+    all.sort(Comparator.comparingInt((Host h) -> h.importPrefix.length()).reversed());
+    this.hostsByPrefix = ImmutableList.copyOf(all);
+  }
+
+  private String generateProjectPrefix() throws URISyntaxException {
+    URI uri = new URI(webUrl);
+    return uri.getHost() + (uri.getPort() == -1 ? "" : ":" + uri.getPort()) + uri.getPath();
+  }
+
+  /**
+   * Returns the host serving requests sent with the {@code Host} header {@code hostHeader}, that is
+   * the matching vanity host or else the host of the canonical web URL.
+   */
+  Host host(String hostHeader) {
+    if (hostHeader == null || hostsByName.isEmpty()) {
+      return defaultHost;
+    }
+    String name = Ascii.toLowerCase(hostHeader);
+    Host host = hostsByName.get(name);
+    if (host == null) {
+      int colon = name.lastIndexOf(':');
+      if (colon > 0 && name.indexOf(']', colon) < 0) {
+        host = hostsByName.get(name.substring(0, colon));
+      }
+    }
+    return host != null ? host : defaultHost;
+  }
+
+  /**
+   * Returns the host whose import prefix is the longest one starting {@code importPath}, or {@code
+   * null} if there is none.
+   */
+  Host hostOfImportPath(String importPath) {
+    for (Host host : hostsByPrefix) {
+      if (importPath.startsWith(host.importPrefix)) {
+        return host;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the most specific project served under {@code host} matching {@code path}.
+   *
+   * @param path requested path relative to the import prefix of {@code host}, without "a/".
+   * @return name of the matching project, or {@code null}.
+   */
+  String getLongestMatch(Host host, String path) {
+    return getLongestMatch(host, path, null);
+  }
+
+  /**
+   * Returns the most specific project served under {@code host} matching {@code path}, and records
+   * the number of project cache lookups in {@code trace} if not {@code null}.
+   */
+  String getLongestMatch(Host host, String path, GoGetTracer.Trace trace) {
+    if (host.projectRoot.isEmpty()) {
+      return getLongestMatch(path, trace);
+    }
+    String match = getLongestMatch(host.projectPath(path), trace);
+    return match != null && host.serves(match) ? match : null;
+  }
+
+  /**
+   * Returns the most specific project matching {@code projectName}.
+   *
+   * <p>Because Gerrit allows for arbitrary-depth project names (that is, both "a" and "a/b/c" are
+   * both legal), the most specific project that matches the path is chosen.
+   *
+   * <p>For example, assume that we have the following projects:
+   *
+   * <pre>
+   *    a
+   *    a/b
+   * </pre>
+   *
+   * <ol>
+   *   <li>If the requested path is "a", then project "a" would be chosen.
+   *   <li>If the requested path is "a/b", then project "a/b" would be chosen.
+   *   <li>If the requested path is "a/c", then project "a" would be chosen.
+   *   <li>If the requested path is "a/b/c/d", then project "a/b" would be chosen.
+   *   <li>If the requested path is "x/y/z", then {@code null} is returned.
+   * </ol>
+   *
+   * @param projectName requested path, without leading '/' and "a/" prefix.
+   * @return name of the matching project, or {@code null}.
+   */
+  String getLongestMatch(String projectName) {
+    return getLongestMatch(projectName, null);
+  }
+
+  private String getLongestMatch(String projectName, GoGetTracer.Trace trace) {
+    if (projectNameIndex.isLoaded()) {
+      metrics.recordProbes(0);
+      return projectNameIndex.longestMatch(projectName);
+    }
+    int probes = 0;
+    String match = null;
+    Path projectPath = Paths.get(projectName);
+    while (projectPath.getNameCount() >= 1) {
+      String asString = projectPath.toString();
+      if (!missingProjects.isMissing(asString)) {
+        probes++;
+        if (projectExists(asString)) {
+          match = asString;
+          break;
+        }
+      }
+      projectPath = projectPath.getParent();
+      if (projectPath == null) {
+        break;
+      }
+    }
+    metrics.recordProbes(probes);
+    if (trace != null) {
+      trace.setProbes(probes);
+    }
+    return match;
+  }
+
+  /** Whether the project name index is loaded, so that {@link #getLongestMatch} is cheap. */
+  boolean isIndexLoaded() {
+    return projectNameIndex.isLoaded();
+  }
+
+  boolean allowsAnonymousAccess(String projectName) {
+    return anonymousAccess.allowsAnonymousAccess(projectName);
+  }
+
+  /** Like {@link #allowsAnonymousAccess} if cached, or else {@code null} without checking. */
+  Boolean cachedAnonymousAccess(String projectName) {
+    return anonymousAccess.cachedAnonymousAccess(projectName);
+  }
+
+  /**
+   * Resolves an existing project.
+   *
+   * @param projectName name of the project, as returned by {@link #getLongestMatch(String)}.
+   * @param authenticated whether the import path is under "/a/".
+   * @param anonymousReadable whether anonymous users can read the project.
+   */
+  Resolution resolve(String projectName, boolean authenticated, boolean anonymousReadable) {
+    return resolve(defaultHost, projectName, authenticated, anonymousReadable);
+  }
+
+  /**
+   * Resolves an existing project served under {@code host}.
+   *
+   * @param projectName name of the project, as returned by {@link #getLongestMatch(Host, String)}.
+   */
+  Resolution resolve(
+      Host host, String projectName, boolean authenticated, boolean anonymousReadable) {
+    String importPrefix =
+        host.importPrefix(authenticated) + projectName.substring(host.projectRoot.length());
+    boolean anonymous = anonymousReadable && !authenticated;
+    String root = host.cloneUrl(anonymous);
+    String proxyUrl = null;
+    if (config.proxyEnabled()) {
+      proxyUrl = root + "plugins/" + config.pluginName() + ModuleProxyServlet.PATH;
+    }
+    return new Resolution(projectName, importPrefix, root + projectName, anonymous, proxyUrl);
+  }
+
+  Resolution resolve(Host host, String projectName, boolean authenticated) {
+    return resolve(host, projectName, authenticated, allowsAnonymousAccess(projectName));
+  }
+
+  private boolean projectExists(String projectName) {
+    Optional<ProjectState> p;
+    try (Timer0.Context ctx = metrics.startProjectCacheLookup()) {
+      p = projectCache.get(Project.nameKey(projectName));
+    }
+    if (!p.isPresent()) {
+      missingProjects.markMissing(projectName);
+    }
+    return p.isPresent();
+  }
+}
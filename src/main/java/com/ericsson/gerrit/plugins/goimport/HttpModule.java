@@ -23,5 +23,6 @@ class HttpModule extends ServletModule {
   @Override
   protected void configureServlets() {
     DynamicSet.bind(binder(), AllRequestFilter.class).to(GoImportFilter.class).in(Scopes.SINGLETON);
+    serve(ModuleProxyServlet.PATH + "/*").with(ModuleProxyServlet.class);
   }
 }
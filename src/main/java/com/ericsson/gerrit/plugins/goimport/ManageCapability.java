@@ -0,0 +1,27 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.extensions.config.CapabilityDefinition;
+
+/** Allows to inspect and flush the caches and indexes of the plugin, and to reindex. */
+class ManageCapability extends CapabilityDefinition {
+  static final String ID = "manage";
+
+  @Override
+  public String getDescription() {
+    return "Manage go-import Caches and Indexes";
+  }
+}
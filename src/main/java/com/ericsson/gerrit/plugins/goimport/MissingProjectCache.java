@@ -0,0 +1,79 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+
+/**
+ * Short-lived cache of project names that were looked up and found not to exist.
+ *
+ * <p>Used while the {@link ProjectNameIndex} is not loaded yet, so that repeated go-get requests
+ * for unknown paths do not reach the {@code ProjectCache} for every parent of the path. A name is
+ * evicted as soon as a project with that name is created.
+ */
+@Singleton
+class MissingProjectCache implements NewProjectCreatedListener {
+  static final String NAME = "missing_projects";
+
+  static com.google.inject.Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(NAME, String.class, Boolean.class)
+            .maximumWeight(8192)
+            .expireAfterWrite(Duration.ofMinutes(1));
+      }
+    };
+  }
+
+  private final Cache<String, Boolean> cache;
+
+  @Inject
+  MissingProjectCache(@Named(NAME) Cache<String, Boolean> cache) {
+    this.cache = cache;
+  }
+
+  boolean isMissing(String projectName) {
+    return cache.getIfPresent(projectName) != null;
+  }
+
+  void markMissing(String projectName) {
+    cache.put(projectName, Boolean.TRUE);
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  long size() {
+    return cache.size();
+  }
+
+  void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public void onNewProjectCreated(NewProjectCreatedListener.Event event) {
+    cache.invalidate(event.getProjectName());
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.gerrit.server.config.ConfigResource.CONFIG_KIND;
+
+import com.google.gerrit.extensions.annotations.Exports;
+import com.google.gerrit.extensions.config.CapabilityDefinition;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.extensions.events.ProjectDeletedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.restapi.RestApiModule;
+import com.google.gerrit.lifecycle.LifecycleModule;
+
+class Module extends LifecycleModule {
+  @Override
+  protected void configure() {
+    listener().to(ProjectNameIndexUpdater.class);
+    DynamicSet.bind(binder(), NewProjectCreatedListener.class).to(ProjectNameIndexUpdater.class);
+    DynamicSet.bind(binder(), ProjectDeletedListener.class).to(ProjectNameIndexUpdater.class);
+
+    install(MissingProjectCache.module());
+    DynamicSet.bind(binder(), NewProjectCreatedListener.class).to(MissingProjectCache.class);
+
+    install(ResponseCache.module());
+    DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(ResponseCache.class);
+
+    install(AnonymousAccessCache.module());
+    listener().to(AnonymousAccessCache.class);
+    DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(AnonymousAccessCache.class);
+
+    listener().to(ModuleZipCache.class);
+
+    listener().to(ModuleIndexer.class);
+    DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(ModuleIndexer.class);
+    DynamicSet.bind(binder(), ProjectDeletedListener.class).to(ModuleIndexer.class);
+
+    bind(CapabilityDefinition.class)
+        .annotatedWith(Exports.named(ManageCapability.ID))
+        .to(ManageCapability.class);
+    install(
+        new RestApiModule() {
+          @Override
+          protected void configure() {
+            post(CONFIG_KIND, "resolve").to(ResolveImportPaths.class);
+            get(CONFIG_KIND, "stats").to(GetStats.class);
+            post(CONFIG_KIND, "flush").to(FlushCaches.class);
+            post(CONFIG_KIND, "reindex").to(Reindex.class);
+          }
+        });
+  }
+}
@@ -0,0 +1,232 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+
+/**
+ * Reads go module versions and content straight from the object database of a repository.
+ *
+ * <p>Module content is read with tree walks on the tagged commit; no worktree is checked out.
+ */
+class ModuleArchive {
+  static final String GO_MOD = "go.mod";
+  static final String LICENSE = "LICENSE";
+
+  private static final int MAX_GO_MOD_SIZE = 16 << 20;
+
+  /**
+   * Returns the tags naming a semantic version, keyed by version.
+   *
+   * @param tagPrefix prefix of the tags of the module, as for the go command: empty for the module
+   *     at the root of the repository, otherwise its directory with a trailing '/' and without a
+   *     major version suffix.
+   */
+  static SortedMap<ModuleVersion, Ref> versions(Repository repo, String tagPrefix)
+      throws IOException {
+    SortedMap<ModuleVersion, Ref> versions = new TreeMap<>();
+    String prefix = Constants.R_TAGS + tagPrefix;
+    for (Ref ref : repo.getRefDatabase().getRefsByPrefix(prefix)) {
+      ModuleVersion version = ModuleVersion.parse(ref.getName().substring(prefix.length()));
+      if (version != null) {
+        versions.put(version, ref);
+      }
+    }
+    return versions;
+  }
+
+  /** Returns the commit a tag points to, peeling annotated tags. */
+  static RevCommit commit(Repository repo, Ref tag) throws IOException {
+    try (RevWalk rw = new RevWalk(repo)) {
+      return rw.parseCommit(tag.getObjectId());
+    }
+  }
+
+  /**
+   * Returns the content of the {@code go.mod} file of the module in {@code subdir}.
+   *
+   * @return content of the file, or {@code null} if the module has no {@code go.mod} file.
+   */
+  static byte[] goMod(Repository repo, RevCommit commit, String subdir) throws IOException {
+    String path = subdir.isEmpty() ? GO_MOD : subdir + "/" + GO_MOD;
+    try (TreeWalk tw = TreeWalk.forPath(repo, path, commit.getTree())) {
+      if (tw == null || !isRegularFile(tw.getRawMode(0))) {
+        return null;
+      }
+      return tw.getObjectReader().open(tw.getObjectId(0)).getCachedBytes(MAX_GO_MOD_SIZE);
+    }
+  }
+
+  /**
+   * Writes the module zip of the module in {@code subdir} to {@code out}.
+   *
+   * <p>As required by the module proxy protocol, every file is stored under {@code
+   * modulePath@version/}. Nested modules, that is directories with their own {@code go.mod} file,
+   * and packages vendored below {@code vendor/} are left out, as are symbolic links and
+   * submodules. Like the go command, the {@code LICENSE} file at the root of the repository is
+   * added to the zip of a module in a subdirectory that has no {@code LICENSE} file of its own, so
+   * that the zip hashes the same as the one the go command builds from the repository.
+   */
+  static void writeZip(
+      Repository repo,
+      RevCommit commit,
+      String subdir,
+      String modulePath,
+      String version,
+      OutputStream out)
+      throws IOException {
+    String prefix = subdir.isEmpty() ? "" : subdir + "/";
+    List<String> nestedModules = nestedModules(repo, commit, prefix);
+    String root = modulePath + "@" + version + "/";
+    try (ObjectReader reader = repo.newObjectReader();
+        TreeWalk tw = new TreeWalk(reader);
+        ZipOutputStream zip = new ZipOutputStream(out)) {
+      tw.addTree(commit.getTree());
+      tw.setRecursive(true);
+      if (!prefix.isEmpty()) {
+        tw.setFilter(PathFilter.create(subdir));
+      }
+      boolean hasLicense = false;
+      while (tw.next()) {
+        if (!isRegularFile(tw.getRawMode(0))) {
+          continue;
+        }
+        String path = tw.getPathString().substring(prefix.length());
+        if (isExcluded(path, nestedModules)) {
+          continue;
+        }
+        hasLicense |= path.equals(LICENSE);
+        zip.putNextEntry(new ZipEntry(root + path));
+        reader.open(tw.getObjectId(0)).copyTo(zip);
+        zip.closeEntry();
+      }
+      if (!prefix.isEmpty() && !hasLicense) {
+        try (TreeWalk license = TreeWalk.forPath(reader, LICENSE, commit.getTree())) {
+          if (license != null && isRegularFile(license.getRawMode(0))) {
+            zip.putNextEntry(new ZipEntry(root + LICENSE));
+            reader.open(license.getObjectId(0)).copyTo(zip);
+            zip.closeEntry();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the directories of the nested modules of the tree of {@code commit}, without trailing
+   * '/'.
+   *
+   * <p>As for the go command, directories below {@code vendor} and {@code testdata}, and
+   * directories starting with '.' or '_' cannot contain modules.
+   */
+  static List<String> modules(Repository repo, RevCommit commit) throws IOException {
+    List<String> modules = new ArrayList<>();
+    for (String dir : nestedModules(repo, commit, "")) {
+      if (isModuleDirectory(dir)) {
+        modules.add(dir.substring(0, dir.length() - 1));
+      }
+    }
+    return modules;
+  }
+
+  private static boolean isModuleDirectory(String dir) {
+    for (String segment : dir.split("/")) {
+      if (segment.equals("vendor")
+          || segment.equals("testdata")
+          || segment.startsWith(".")
+          || segment.startsWith("_")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the directories below {@code prefix} that contain a {@code go.mod} file. */
+  private static List<String> nestedModules(Repository repo, RevCommit commit, String prefix)
+      throws IOException {
+    List<String> dirs = new ArrayList<>();
+    try (TreeWalk tw = new TreeWalk(repo)) {
+      tw.addTree(commit.getTree());
+      tw.setRecursive(true);
+      tw.setFilter(PathSuffixFilter.create("/" + GO_MOD));
+      while (tw.next()) {
+        String path = tw.getPathString();
+        if (path.startsWith(prefix)) {
+          String dir = path.substring(prefix.length(), path.length() - GO_MOD.length());
+          if (!dir.isEmpty()) {
+            dirs.add(dir);
+          }
+        }
+      }
+    }
+    return dirs;
+  }
+
+  private static boolean isExcluded(String path, List<String> nestedModules) {
+    for (String dir : nestedModules) {
+      if (path.startsWith(dir)) {
+        return true;
+      }
+    }
+    return isVendoredPackage(path);
+  }
+
+  /**
+   * Same rule as {@code isVendoredPackage} of {@code golang.org/x/mod/zip}: files directly in the
+   * top-level {@code vendor/} are kept.
+   *
+   * <p>For a {@code vendor/} directory deeper in the tree, the go command looks for a '/' from the
+   * offset {@code "/vendor/".length()} of the path, not of the match. This is a known bug that is
+   * kept because fixing it would change the checksums of published modules; it is reproduced here
+   * so that the zips hash the same. As a result, {@code a/vendor/x.go} is excluded too.
+   */
+  @VisibleForTesting
+  static boolean isVendoredPackage(String path) {
+    int i;
+    if (path.startsWith("vendor/")) {
+      i = "vendor/".length();
+    } else if (path.contains("/vendor/")) {
+      i = "/vendor/".length();
+    } else {
+      return false;
+    }
+    return path.indexOf('/', i) >= 0;
+  }
+
+  /** Whether {@code rawMode} is a regular or executable file, but not a link or submodule. */
+  private static boolean isRegularFile(int rawMode) {
+    return (rawMode & FileMode.TYPE_MASK) == FileMode.TYPE_FILE;
+  }
+
+  private ModuleArchive() {}
+}
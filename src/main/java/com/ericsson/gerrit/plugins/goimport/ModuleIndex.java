@@ -0,0 +1,109 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of the nested go modules of all projects, as found on their default branch by
+ * the {@link ModuleIndexer}.
+ *
+ * <p>Modules are keyed by their path relative to the canonical web URL, that is the project name
+ * followed by the module directory. Lookups do not lock.
+ */
+@Singleton
+class ModuleIndex {
+  /** A nested module: a directory with a {@code go.mod} file below the root of a project. */
+  static class Module {
+    final String project;
+    final String subdir;
+
+    Module(String project, String subdir) {
+      this.project = project;
+      this.subdir = subdir;
+    }
+  }
+
+  private final PathTrie<Module> modules = new PathTrie<>();
+  private final Map<String, List<String>> subdirsByProject = new HashMap<>();
+
+  /** Returns the nested module at exactly {@code path}, or {@code null}. */
+  Module get(String path) {
+    return modules.get(path);
+  }
+
+  /** Replaces the nested modules of {@code project}. */
+  synchronized void update(String project, List<String> subdirs) {
+    removeModules(project);
+    if (!subdirs.isEmpty()) {
+      subdirsByProject.put(project, ImmutableList.copyOf(subdirs));
+      for (String subdir : subdirs) {
+        String path = project + "/" + subdir;
+        Module other = modules.get(path);
+        // The same path can be a module of "a" in "b/c" and of "a/b" in "c". As for import paths,
+        // the most specific project wins.
+        if (other == null || other.project.length() < project.length()) {
+          modules.put(path, new Module(project, subdir));
+        }
+      }
+    }
+  }
+
+  synchronized void remove(String project) {
+    removeModules(project);
+  }
+
+  synchronized List<String> subdirs(String project) {
+    return subdirsByProject.getOrDefault(project, ImmutableList.of());
+  }
+
+  int size() {
+    return modules.size();
+  }
+
+  private void removeModules(String project) {
+    List<String> old = subdirsByProject.remove(project);
+    if (old != null) {
+      for (String subdir : old) {
+        String path = project + "/" + subdir;
+        Module module = modules.get(path);
+        if (module != null && module.project.equals(project)) {
+          Module shadowed = mostSpecificModule(path);
+          if (shadowed != null) {
+            modules.put(path, shadowed);
+          } else {
+            modules.remove(path);
+          }
+        }
+      }
+    }
+  }
+
+  /** Returns the module at {@code path} of the most specific project that still provides it. */
+  private Module mostSpecificModule(String path) {
+    for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+      String project = path.substring(0, i);
+      String subdir = path.substring(i + 1);
+      if (subdirsByProject.getOrDefault(project, ImmutableList.of()).contains(subdir)) {
+        return new Module(project, subdir);
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.events.ProjectDeletedListener;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Keeps the {@link ModuleIndex} current in the background.
+ *
+ * <p>All projects are scanned on startup. Afterwards a project is scanned again when its default
+ * branch, or its {@code HEAD}, is updated. Scans run one at a time on the {@code GoModuleIndexer}
+ * work queue, and updates of a project that is already waiting for a scan are coalesced.
+ *
+ * <p>Nested modules are only served by the module proxy, so nothing is indexed unless the proxy
+ * is enabled.
+ */
+@Singleton
+class ModuleIndexer
+    implements LifecycleListener, GitReferenceUpdatedListener, ProjectDeletedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String QUEUE_NAME = "GoModuleIndexer";
+
+  private final ModuleIndex index;
+  private final ProjectCache projectCache;
+  private final GitRepositoryManager repoManager;
+  private final WorkQueue workQueue;
+  private final Configuration config;
+
+  /** Default branch of the indexed projects. */
+  private final Map<String, String> heads = new ConcurrentHashMap<>();
+
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  ModuleIndexer(
+      ModuleIndex index,
+      ProjectCache projectCache,
+      GitRepositoryManager repoManager,
+      WorkQueue workQueue,
+      Configuration config) {
+    this.index = index;
+    this.projectCache = projectCache;
+    this.repoManager = repoManager;
+    this.workQueue = workQueue;
+    this.config = config;
+  }
+
+  @Override
+  public void start() {
+    if (!config.proxyEnabled()) {
+      return;
+    }
+    executor = workQueue.createQueue(1, QUEUE_NAME);
+    for (Project.NameKey project : projectCache.all()) {
+      schedule(project.get());
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    String refName = event.getRefName();
+    String head = heads.get(event.getProjectName());
+    if (refName.equals(head)
+        || refName.equals(Constants.HEAD)
+        || (head == null && refName.startsWith(Constants.R_HEADS))) {
+      schedule(event.getProjectName());
+    }
+  }
+
+  @Override
+  public void onProjectDeleted(ProjectDeletedListener.Event event) {
+    heads.remove(event.getProjectName());
+    index.remove(event.getProjectName());
+  }
+
+  /**
+   * Scans all projects again in the background. Modules are served from the current index until
+   * their project is scanned.
+   *
+   * @return {@code false} if nothing is indexed because the module proxy is disabled.
+   */
+  boolean reindexAll() {
+    if (executor == null) {
+      return false;
+    }
+    for (Project.NameKey project : projectCache.all()) {
+      schedule(project.get());
+    }
+    return true;
+  }
+
+  int pending() {
+    return pending.size();
+  }
+
+  private void schedule(String project) {
+    ScheduledExecutorService e = executor;
+    if (e != null && pending.add(project)) {
+      e.execute(
+          () -> {
+            pending.remove(project);
+            index(project);
+          });
+    }
+  }
+
+  /** Scans the default branch of {@code project} for nested modules. */
+  @VisibleForTesting
+  void index(String project) {
+    try (Repository repo = repoManager.openRepository(Project.nameKey(project))) {
+      Ref head = repo.exactRef(Constants.HEAD);
+      if (head == null) {
+        heads.remove(project);
+        index.remove(project);
+        return;
+      }
+      heads.put(project, head.getTarget().getName());
+      if (head.getObjectId() == null) {
+        index.remove(project);
+        return;
+      }
+      try (RevWalk rw = new RevWalk(repo)) {
+        index.update(project, ModuleArchive.modules(repo, rw.parseCommit(head.getObjectId())));
+      }
+    } catch (RepositoryNotFoundException e) {
+      heads.remove(project);
+      index.remove(project);
+    } catch (IOException e) {
+      // Keep serving the modules indexed so far.
+      logger.atWarning().withCause(e).log("Cannot index go modules of %s", project);
+    }
+  }
+}
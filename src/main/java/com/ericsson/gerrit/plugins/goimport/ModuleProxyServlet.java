@@ -0,0 +1,349 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.gerrit.server.permissions.RefPermission;
+import com.google.gerrit.util.http.CacheHeaders;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Serves go modules through the module proxy protocol.
+ *
+ * <p>Supports {@code $module/@v/list}, {@code $module/@v/$version.info}, {@code .mod}, {@code
+ * .zip} and {@code $module/@latest}. The module path must resolve to a project or to one of the
+ * nested modules in the {@link ModuleIndex}, optionally followed by a major version suffix.
+ * Versions are the semantic version tags of the project, prefixed with the module directory for
+ * nested modules, as the go command expects.
+ */
+@Singleton
+class ModuleProxyServlet extends HttpServlet {
+  private static final long serialVersionUID = 1L;
+
+  static final String PATH = "/proxy";
+
+  private static final String VERSION_PATH = "/@v/";
+  private static final String LATEST_PATH = "/@latest";
+  private static final Pattern MAJOR_SUFFIX = Pattern.compile("^(.+)/v([2-9]|[1-9][0-9]+)$");
+  private static final Pattern MAJOR_DIRECTORY = Pattern.compile("^(.*/)?v([2-9]|[1-9][0-9]+)$");
+
+  /** A module, as requested from the proxy. */
+  @VisibleForTesting
+  static class ModuleRequest {
+    final String modulePath;
+    final String operation;
+
+    ModuleRequest(String modulePath, String operation) {
+      this.modulePath = modulePath;
+      this.operation = operation;
+    }
+  }
+
+  /** A module, as resolved to a project. */
+  @VisibleForTesting
+  static class Module {
+    final Project.NameKey project;
+    final String subdir;
+    final String tagPrefix;
+    final int pathMajor;
+
+    Module(Project.NameKey project, String subdir, int pathMajor) {
+      this.project = project;
+      this.subdir = subdir;
+      this.pathMajor = pathMajor;
+      // Tags of a module in a major version directory, like "tools/v2", are named "tools/vX.Y.Z".
+      Matcher m = MAJOR_DIRECTORY.matcher(subdir);
+      if (m.matches()) {
+        this.tagPrefix = Strings.nullToEmpty(m.group(1));
+      } else {
+        this.tagPrefix = subdir.isEmpty() ? "" : subdir + "/";
+      }
+    }
+  }
+
+  private final GoImportResolver resolver;
+  private final ModuleIndex moduleIndex;
+  private final GitRepositoryManager repoManager;
+  private final PermissionBackend permissions;
+  private final ModuleZipCache zipCache;
+  private final Configuration config;
+
+  @Inject
+  ModuleProxyServlet(
+      GoImportResolver resolver,
+      ModuleIndex moduleIndex,
+      GitRepositoryManager repoManager,
+      PermissionBackend permissions,
+      ModuleZipCache zipCache,
+      Configuration config) {
+    this.resolver = resolver;
+    this.moduleIndex = moduleIndex;
+    this.repoManager = repoManager;
+    this.permissions = permissions;
+    this.zipCache = zipCache;
+    this.config = config;
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse rsp) throws IOException {
+    ModuleRequest request = config.proxyEnabled() ? parse(req.getPathInfo()) : null;
+    Module module = request != null ? resolve(request.modulePath) : null;
+    if (module == null) {
+      rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    try (Repository repo = repoManager.openRepository(module.project)) {
+      SortedMap<ModuleVersion, Ref> versions = readableVersions(repo, module);
+      if (request.operation.equals(LATEST_PATH)) {
+        ModuleVersion latest = latest(versions);
+        if (latest == null) {
+          rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+          return;
+        }
+        CacheHeaders.setNotCacheable(rsp);
+        sendInfo(rsp, latest, ModuleArchive.commit(repo, versions.get(latest)));
+      } else if (request.operation.equals("list")) {
+        CacheHeaders.setNotCacheable(rsp);
+        StringBuilder list = new StringBuilder();
+        for (ModuleVersion version : versions.keySet()) {
+          list.append(version).append('\n');
+        }
+        send(rsp, "text/plain", list.toString().getBytes(UTF_8));
+      } else {
+        serveVersion(rsp, repo, versions, request, module);
+      }
+    } catch (RepositoryNotFoundException e) {
+      rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+
+  private void serveVersion(
+      HttpServletResponse rsp,
+      Repository repo,
+      SortedMap<ModuleVersion, Ref> versions,
+      ModuleRequest request,
+      Module module)
+      throws IOException {
+    String op = request.operation;
+    int dot = op.lastIndexOf('.');
+    ModuleVersion version = dot > 0 ? ModuleVersion.parse(op.substring(0, dot)) : null;
+    Ref tag = version != null ? versions.get(version) : null;
+    if (tag == null) {
+      rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    RevCommit commit = ModuleArchive.commit(repo, tag);
+    CacheHeaders.setCacheablePrivate(rsp, 1, TimeUnit.HOURS);
+    switch (op.substring(dot)) {
+      case ".info":
+        sendInfo(rsp, version, commit);
+        break;
+      case ".mod":
+        byte[] goMod = ModuleArchive.goMod(repo, commit, module.subdir);
+        if (goMod == null) {
+          goMod = ("module " + request.modulePath + "\n").getBytes(UTF_8);
+        }
+        send(rsp, "text/plain", goMod);
+        break;
+      case ".zip":
+        rsp.setContentType("application/zip");
+        zipCache.send(
+            new ModuleZipCache.Key(commit, module.subdir, request.modulePath, version.name),
+            out ->
+                ModuleArchive.writeZip(
+                    repo, commit, module.subdir, request.modulePath, version.name, out),
+            rsp);
+        break;
+      default:
+        CacheHeaders.setNotCacheable(rsp);
+        rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+
+  /** Splits the path info of a request into module path and operation. */
+  @VisibleForTesting
+  static ModuleRequest parse(String pathInfo) {
+    if (pathInfo == null || !pathInfo.startsWith("/")) {
+      return null;
+    }
+    if (pathInfo.endsWith(LATEST_PATH)) {
+      String modulePath = unescape(pathInfo.substring(1, pathInfo.length() - LATEST_PATH.length()));
+      if (modulePath == null || modulePath.isEmpty()) {
+        return null;
+      }
+      return new ModuleRequest(modulePath, LATEST_PATH);
+    }
+    int v = pathInfo.indexOf(VERSION_PATH);
+    if (v <= 1 || pathInfo.indexOf('/', v + VERSION_PATH.length()) >= 0) {
+      return null;
+    }
+    String modulePath = unescape(pathInfo.substring(1, v));
+    String operation = unescape(pathInfo.substring(v + VERSION_PATH.length()));
+    if (modulePath == null || operation == null || operation.isEmpty()) {
+      return null;
+    }
+    return new ModuleRequest(modulePath, operation);
+  }
+
+  /** Reverts the case encoding of the proxy protocol, where {@code !x} stands for {@code X}. */
+  @VisibleForTesting
+  static String unescape(String escaped) {
+    if (escaped.indexOf('!') < 0) {
+      return escaped;
+    }
+    StringBuilder s = new StringBuilder(escaped.length());
+    for (int i = 0; i < escaped.length(); i++) {
+      char c = escaped.charAt(i);
+      if (c == '!') {
+        if (++i == escaped.length()) {
+          return null;
+        }
+        char next = escaped.charAt(i);
+        if (next < 'a' || next > 'z') {
+          return null;
+        }
+        s.append(Character.toUpperCase(next));
+      } else {
+        s.append(c);
+      }
+    }
+    return s.toString();
+  }
+
+  private Module resolve(String modulePath) {
+    GoImportResolver.Host host = resolver.hostOfImportPath(modulePath);
+    if (host == null) {
+      return null;
+    }
+    String path = modulePath.substring(host.importPrefix(false).length());
+    if (path.startsWith(GoImportResolver.AUTHENTICATED_PATH)) {
+      path = path.substring(GoImportResolver.AUTHENTICATED_PATH.length());
+    }
+    String project = resolver.getLongestMatch(host, path);
+    if (project == null) {
+      return null;
+    }
+    Module module = resolve(project, host.projectPath(path));
+    if (module == null
+        || !permissions
+            .currentUser()
+            .project(module.project)
+            .testOrFalse(ProjectPermission.ACCESS)) {
+      return null;
+    }
+    return module;
+  }
+
+  /**
+   * Resolves {@code path} to the root module of {@code project} or to one of its nested modules,
+   * possibly followed by a major version suffix.
+   */
+  @VisibleForTesting
+  Module resolve(String project, String path) {
+    Module module = resolveDirectory(project, path);
+    if (module != null) {
+      return module;
+    }
+    Matcher m = MAJOR_SUFFIX.matcher(path);
+    if (m.matches()) {
+      module = resolveDirectory(project, m.group(1));
+      if (module != null && module.pathMajor == 0) {
+        return new Module(module.project, module.subdir, Integer.parseInt(m.group(2)));
+      }
+    }
+    return null;
+  }
+
+  private Module resolveDirectory(String project, String path) {
+    if (path.equals(project)) {
+      return new Module(Project.nameKey(project), "", 0);
+    }
+    ModuleIndex.Module nested = moduleIndex.get(path);
+    if (nested == null || !nested.project.equals(project)) {
+      return null;
+    }
+    Matcher m = MAJOR_DIRECTORY.matcher(nested.subdir);
+    int pathMajor = m.matches() ? Integer.parseInt(m.group(2)) : 0;
+    return new Module(Project.nameKey(project), nested.subdir, pathMajor);
+  }
+
+  private SortedMap<ModuleVersion, Ref> readableVersions(Repository repo, Module module)
+      throws IOException {
+    PermissionBackend.ForProject perm = permissions.currentUser().project(module.project);
+    SortedMap<ModuleVersion, Ref> readable = new TreeMap<>();
+    for (Map.Entry<ModuleVersion, Ref> e :
+        ModuleArchive.versions(repo, module.tagPrefix).entrySet()) {
+      if (e.getKey().matchesPathMajor(module.pathMajor)
+          && perm.ref(e.getValue().getName()).testOrFalse(RefPermission.READ)) {
+        readable.put(e.getKey(), e.getValue());
+      }
+    }
+    return readable;
+  }
+
+  /** Returns the highest release, or the highest pre-release if there are no releases. */
+  private static ModuleVersion latest(SortedMap<ModuleVersion, Ref> versions) {
+    ModuleVersion latest = null;
+    for (ModuleVersion version : versions.keySet()) {
+      if (!version.isPrerelease() || latest == null || latest.isPrerelease()) {
+        latest = version;
+      }
+    }
+    return latest;
+  }
+
+  private static void sendInfo(HttpServletResponse rsp, ModuleVersion version, RevCommit commit)
+      throws IOException {
+    String time =
+        DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(commit.getCommitTime()));
+    String info = "{\"Version\":\"" + version + "\",\"Time\":\"" + time + "\"}\n";
+    send(rsp, "application/json", info.getBytes(UTF_8));
+  }
+
+  private static void send(HttpServletResponse rsp, String contentType, byte[] body)
+      throws IOException {
+    rsp.setContentType(contentType);
+    rsp.setCharacterEncoding(UTF_8.name());
+    rsp.setContentLength(body.length);
+    try (OutputStream out = rsp.getOutputStream()) {
+      out.write(body);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Semantic version of a go module, as named by a {@code refs/tags/vX.Y.Z} tag.
+ *
+ * <p>Build metadata is not allowed, as the go command rejects it in module versions.
+ */
+class ModuleVersion implements Comparable<ModuleVersion> {
+  // Numeric prerelease identifiers must not have leading zeros, so that "-01" and "-1" are not
+  // two names of the same version.
+  private static final String PRERELEASE_IDENTIFIER =
+      "(?:0|[1-9][0-9]*|[0-9]*[A-Za-z-][0-9A-Za-z-]*)";
+  private static final Pattern SEMVER =
+      Pattern.compile(
+          "^v(0|[1-9][0-9]*)\\.(0|[1-9][0-9]*)\\.(0|[1-9][0-9]*)"
+              + "(?:-("
+              + PRERELEASE_IDENTIFIER
+              + "(?:\\."
+              + PRERELEASE_IDENTIFIER
+              + ")*))?$");
+
+  /** Returns the version named {@code version}, or {@code null} if it is not a semver. */
+  static ModuleVersion parse(String version) {
+    Matcher m = SEMVER.matcher(version);
+    if (!m.matches()) {
+      return null;
+    }
+    try {
+      return new ModuleVersion(
+          version,
+          Integer.parseInt(m.group(1)),
+          Integer.parseInt(m.group(2)),
+          Integer.parseInt(m.group(3)),
+          m.group(4));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  final String name;
+  final int major;
+  final int minor;
+  final int patch;
+  final String prerelease;
+
+  private ModuleVersion(String name, int major, int minor, int patch, String prerelease) {
+    this.name = name;
+    this.major = major;
+    this.minor = minor;
+    this.patch = patch;
+    this.prerelease = prerelease;
+  }
+
+  boolean isPrerelease() {
+    return prerelease != null;
+  }
+
+  /**
+   * Whether this version may be served for a module path with the given major version suffix.
+   *
+   * @param pathMajor major version suffix of the module path ({@code /vN}), or 0 if it has none.
+   */
+  boolean matchesPathMajor(int pathMajor) {
+    return pathMajor == 0 ? major <= 1 : major == pathMajor;
+  }
+
+  @Override
+  public int compareTo(ModuleVersion o) {
+    int c = Integer.compare(major, o.major);
+    if (c == 0) {
+      c = Integer.compare(minor, o.minor);
+    }
+    if (c == 0) {
+      c = Integer.compare(patch, o.patch);
+    }
+    if (c == 0) {
+      c = comparePrerelease(prerelease, o.prerelease);
+    }
+    return c;
+  }
+
+  private static int comparePrerelease(String a, String b) {
+    if (a == null || b == null) {
+      // A release has higher precedence than any of its pre-releases.
+      return a == null ? (b == null ? 0 : 1) : -1;
+    }
+    String[] as = a.split("\\.");
+    String[] bs = b.split("\\.");
+    for (int i = 0; i < Math.min(as.length, bs.length); i++) {
+      boolean an = isNumeric(as[i]);
+      boolean bn = isNumeric(bs[i]);
+      int c;
+      if (an && bn) {
+        c = Long.compare(Long.parseLong(as[i]), Long.parseLong(bs[i]));
+      } else if (an || bn) {
+        c = an ? -1 : 1;
+      } else {
+        c = as[i].compareTo(bs[i]);
+      }
+      if (c != 0) {
+        return c;
+      }
+    }
+    return Integer.compare(as.length, bs.length);
+  }
+
+  private static boolean isNumeric(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (!Character.isDigit(s.charAt(i))) {
+        return false;
+      }
+    }
+    return s.length() < 19;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof ModuleVersion && name.equals(((ModuleVersion) o).name);
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
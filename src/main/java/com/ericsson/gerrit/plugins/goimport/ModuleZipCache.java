@@ -0,0 +1,286 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Disk cache of module zips, below the {@code zips} directory of the plugin data directory.
+ *
+ * <p>Tags are not supposed to move, so the zip of a module version only depends on the tagged
+ * commit, the module directory in it, and the module path and version its entries are stored
+ * under. Files are named after a hash of these, written to a temporary file and renamed into place,
+ * so readers never see a partially written zip. Concurrent requests for a zip that is not cached
+ * yet wait for a single writer. The least recently served files are deleted once the cache exceeds
+ * {@link Configuration#zipCacheSize()}.
+ */
+@Singleton
+class ModuleZipCache implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String DIRECTORY = "zips";
+
+  private static final String ZIP_SUFFIX = ".zip";
+  private static final String TMP_SUFFIX = ".tmp";
+
+  /** Writes the content of a module zip. */
+  interface ZipWriter {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /** Identifies the content of a module zip. */
+  static class Key {
+    final ObjectId commit;
+    final String subdir;
+    final String modulePath;
+    final String version;
+
+    Key(ObjectId commit, String subdir, String modulePath, String version) {
+      this.commit = commit;
+      this.subdir = subdir;
+      this.modulePath = modulePath;
+      this.version = version;
+    }
+
+    String fileName() {
+      return Hashing.sha256()
+              .newHasher()
+              .putString(commit.name(), UTF_8)
+              .putByte((byte) 0)
+              .putString(subdir, UTF_8)
+              .putByte((byte) 0)
+              .putString(modulePath, UTF_8)
+              .putByte((byte) 0)
+              .putString(version, UTF_8)
+              .hash()
+          + ZIP_SUFFIX;
+    }
+  }
+
+  private final Path dir;
+  private final long maxSize;
+
+  /** Sizes of the cached files by name, least recently served first. */
+  private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long size;
+
+  // Zips being written, by file name; concurrent requests for the same zip wait for the same file.
+  private final ConcurrentMap<String, CompletableFuture<Path>> writing = new ConcurrentHashMap<>();
+
+  @Inject
+  ModuleZipCache(@PluginData Path dataDir, Configuration config) {
+    this.dir = dataDir.resolve(DIRECTORY);
+    this.maxSize = config.zipCacheSize();
+  }
+
+  @Override
+  public void start() {
+    if (maxSize <= 0) {
+      return;
+    }
+    try {
+      Files.createDirectories(dir);
+      load();
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Cannot load module zip cache %s", dir);
+    }
+  }
+
+  @Override
+  public void stop() {}
+
+  /** Registers the files left by a previous run, oldest first, and removes unfinished ones. */
+  private void load() throws IOException {
+    List<Path> zips = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+      for (Path p : ds) {
+        String name = p.getFileName().toString();
+        if (name.endsWith(ZIP_SUFFIX)) {
+          zips.add(p);
+        } else if (name.endsWith(TMP_SUFFIX)) {
+          delete(p);
+        }
+      }
+    }
+    Map<Path, FileTime> times = new LinkedHashMap<>();
+    for (Path p : zips) {
+      times.put(p, Files.getLastModifiedTime(p));
+    }
+    zips.sort((a, b) -> times.get(a).compareTo(times.get(b)));
+    synchronized (this) {
+      for (Path p : zips) {
+        add(p.getFileName().toString(), Files.size(p));
+      }
+      evict();
+    }
+  }
+
+  /**
+   * Sends the zip identified by {@code key}, writing it with {@code writer} first if it is not
+   * cached yet.
+   *
+   * <p>Cached files are copied to the response with {@link FileChannel#transferTo}, so their
+   * content is not buffered on the heap.
+   */
+  void send(Key key, ZipWriter writer, HttpServletResponse rsp) throws IOException {
+    if (maxSize <= 0) {
+      try (OutputStream out = rsp.getOutputStream()) {
+        writer.writeTo(out);
+      }
+      return;
+    }
+    FileChannel in;
+    try {
+      in = FileChannel.open(get(key, writer), StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      // Evicted between writing and opening it.
+      in = FileChannel.open(get(key, writer), StandardOpenOption.READ);
+    }
+    try {
+      long length = in.size();
+      rsp.setContentLengthLong(length);
+      try (OutputStream out = rsp.getOutputStream();
+          WritableByteChannel ch = Channels.newChannel(out)) {
+        for (long pos = 0; pos < length; ) {
+          pos += in.transferTo(pos, length - pos, ch);
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Returns the cached zip identified by {@code key}, writing it with {@code writer} if needed. */
+  @VisibleForTesting
+  Path get(Key key, ZipWriter writer) throws IOException {
+    String name = key.fileName();
+    Path zip = dir.resolve(name);
+    synchronized (this) {
+      if (files.get(name) != null && Files.exists(zip)) {
+        return zip;
+      }
+    }
+    CompletableFuture<Path> future = new CompletableFuture<>();
+    CompletableFuture<Path> running = writing.putIfAbsent(name, future);
+    if (running != null) {
+      return await(running);
+    }
+    try {
+      write(name, zip, writer);
+      future.complete(zip);
+      return zip;
+    } catch (IOException | RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      writing.remove(name, future);
+    }
+  }
+
+  private void write(String name, Path zip, ZipWriter writer) throws IOException {
+    Files.createDirectories(dir);
+    Path tmp = Files.createTempFile(dir, name, TMP_SUFFIX);
+    try {
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        writer.writeTo(out);
+      }
+      Files.move(tmp, zip, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    synchronized (this) {
+      add(name, Files.size(zip));
+      evict();
+    }
+  }
+
+  private static Path await(CompletableFuture<Path> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long size() {
+    return size;
+  }
+
+  private void add(String name, long length) {
+    Long old = files.put(name, length);
+    size += length - (old != null ? old : 0);
+  }
+
+  /** Deletes the least recently served files until the cache fits, keeping the newest one. */
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+    while (size > maxSize && files.size() > 1 && it.hasNext()) {
+      Map.Entry<String, Long> e = it.next();
+      delete(dir.resolve(e.getKey()));
+      size -= e.getValue();
+      it.remove();
+    }
+  }
+
+  private static void delete(Path p) {
+    try {
+      Files.deleteIfExists(p);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot delete %s", p);
+    }
+  }
+}
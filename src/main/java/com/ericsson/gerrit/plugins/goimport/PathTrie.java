@@ -0,0 +1,255 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Trie of '/' separated paths supporting lock-free longest-prefix lookups.
+ *
+ * <p>Children of a node are kept in an array sorted by segment and replaced as a whole on every
+ * modification, so readers never observe a partially updated node. Modifications are serialized
+ * on the trie itself; they are expected to be rare compared to lookups.
+ */
+class PathTrie<V> {
+  private static final Node<?>[] NO_CHILDREN = new Node<?>[0];
+
+  private static final class Node<V> {
+    final String segment;
+    volatile V value;
+    volatile Node<?>[] children = NO_CHILDREN;
+
+    Node(String segment) {
+      this.segment = segment;
+    }
+
+    @SuppressWarnings("unchecked")
+    Node<V> child(int i) {
+      return (Node<V>) children[i];
+    }
+  }
+
+  private final Node<V> root = new Node<>("");
+  private int size;
+
+  /**
+   * Returns the value of the longest path that is a prefix of {@code path}, on segment
+   * boundaries.
+   *
+   * <p>The lookup does not allocate: segments of {@code path} are compared in place against the
+   * segments stored in the trie.
+   *
+   * @param path path to look up, without leading '/'.
+   * @return value of the longest matching path or {@code null} if no path matches.
+   */
+  V longestMatch(String path) {
+    V match = null;
+    Node<V> node = root;
+    int start = 0;
+    int length = path.length();
+    while (start < length) {
+      int end = path.indexOf('/', start);
+      if (end < 0) {
+        end = length;
+      }
+      node = find(node, path, start, end);
+      if (node == null) {
+        break;
+      }
+      V value = node.value;
+      if (value != null) {
+        match = value;
+      }
+      start = end + 1;
+    }
+    return match;
+  }
+
+  /** Returns the value stored for exactly {@code path}, or {@code null}. */
+  V get(String path) {
+    Node<V> node = root;
+    int start = 0;
+    int length = path.length();
+    while (start < length) {
+      int end = path.indexOf('/', start);
+      if (end < 0) {
+        end = length;
+      }
+      node = find(node, path, start, end);
+      if (node == null) {
+        return null;
+      }
+      start = end + 1;
+    }
+    return node == root ? null : node.value;
+  }
+
+  /** Returns all values, in no particular order. */
+  List<V> values() {
+    List<V> values = new ArrayList<>();
+    collect(root, values);
+    return values;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> void collect(Node<V> node, List<V> values) {
+    V value = node.value;
+    if (value != null) {
+      values.add(value);
+    }
+    for (Node<?> child : node.children) {
+      collect((Node<V>) child, values);
+    }
+  }
+
+  /**
+   * Estimates the heap used by the trie, assuming compressed references and one byte per
+   * character of segments and of {@code String} values. Other values are not accounted for.
+   */
+  long estimateBytes() {
+    return estimateBytes(root);
+  }
+
+  private static long estimateBytes(Node<?> node) {
+    // Node and its segment: object headers, fields, and the segment bytes.
+    long bytes = 24 + 40 + node.segment.length();
+    Object value = node.value;
+    if (value instanceof String) {
+      bytes += 40 + ((String) value).length();
+    }
+    Node<?>[] children = node.children;
+    if (children.length > 0) {
+      bytes += 16 + 4L * children.length;
+    }
+    for (Node<?> child : children) {
+      bytes += estimateBytes(child);
+    }
+    return bytes;
+  }
+
+  synchronized void put(String path, V value) {
+    Node<V> node = root;
+    for (String segment : path.split("/")) {
+      if (segment.isEmpty()) {
+        continue;
+      }
+      Node<V> child = find(node, segment, 0, segment.length());
+      if (child == null) {
+        child = new Node<>(segment);
+        insert(node, child);
+      }
+      node = child;
+    }
+    if (node == root) {
+      return;
+    }
+    if (node.value == null) {
+      size++;
+    }
+    node.value = value;
+  }
+
+  synchronized boolean remove(String path) {
+    String[] segments = path.split("/");
+    return remove(root, segments, 0);
+  }
+
+  synchronized void clear() {
+    root.children = NO_CHILDREN;
+    size = 0;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  private boolean remove(Node<V> node, String[] segments, int i) {
+    while (i < segments.length && segments[i].isEmpty()) {
+      i++;
+    }
+    if (i == segments.length) {
+      if (node == root || node.value == null) {
+        return false;
+      }
+      node.value = null;
+      size--;
+      return true;
+    }
+    String segment = segments[i];
+    int idx = indexOf(node.children, segment, 0, segment.length());
+    if (idx < 0) {
+      return false;
+    }
+    Node<V> child = node.child(idx);
+    boolean removed = remove(child, segments, i + 1);
+    if (removed && child.value == null && child.children.length == 0) {
+      Node<?>[] old = node.children;
+      Node<?>[] updated = new Node<?>[old.length - 1];
+      System.arraycopy(old, 0, updated, 0, idx);
+      System.arraycopy(old, idx + 1, updated, idx, old.length - idx - 1);
+      node.children = updated;
+    }
+    return removed;
+  }
+
+  private static void insert(Node<?> parent, Node<?> child) {
+    Node<?>[] old = parent.children;
+    int idx = -(indexOf(old, child.segment, 0, child.segment.length()) + 1);
+    Node<?>[] updated = Arrays.copyOf(old, old.length + 1);
+    System.arraycopy(old, idx, updated, idx + 1, old.length - idx);
+    updated[idx] = child;
+    parent.children = updated;
+  }
+
+  private static <V> Node<V> find(Node<V> node, String path, int start, int end) {
+    int idx = indexOf(node.children, path, start, end);
+    return idx < 0 ? null : node.child(idx);
+  }
+
+  /** Binary search of the segment {@code path[start, end)} in {@code nodes}. */
+  private static int indexOf(Node<?>[] nodes, String path, int start, int end) {
+    int low = 0;
+    int high = nodes.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(nodes[mid].segment, path, start, end);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /** Compares like {@link String#compareTo(String)} without extracting the segment. */
+  private static int compare(String segment, String path, int start, int end) {
+    int len1 = segment.length();
+    int len2 = end - start;
+    int lim = Math.min(len1, len2);
+    for (int k = 0; k < lim; k++) {
+      char c1 = segment.charAt(k);
+      char c2 = path.charAt(start + k);
+      if (c1 != c2) {
+        return c1 - c2;
+      }
+    }
+    return len1 - len2;
+  }
+}
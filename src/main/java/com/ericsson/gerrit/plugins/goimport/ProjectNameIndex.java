@@ -0,0 +1,165 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.entities.Project;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of all project names, used to find the most specific project matching a go-get
+ * request without probing the {@code ProjectCache} once per path segment.
+ *
+ * <p>The index is only authoritative once {@link #isLoaded()} returns {@code true}; until then
+ * callers are expected to fall back to the project cache.
+ *
+ * <p>Until the index is loaded it can be backed by a {@link ProjectNameSnapshot} taken on a
+ * previous run. Projects created or deleted in the meantime are tracked on top of the snapshot.
+ *
+ * <p>Loading builds a new trie and swaps it in once complete, so lookups are answered from the
+ * previous content while the index is reloaded. Projects created or deleted after {@link
+ * #startLoading()} are applied to the new trie before the swap.
+ */
+@Singleton
+class ProjectNameIndex {
+  private final Object lock = new Object();
+  private final Set<String> removedFromSnapshot = ConcurrentHashMap.newKeySet();
+  private volatile PathTrie<String> names = new PathTrie<>();
+  private volatile ProjectNameSnapshot snapshot;
+  private volatile boolean loaded;
+
+  /** Projects created (true) or deleted (false) since {@link #startLoading()}. */
+  private Map<String, Boolean> changesWhileLoading;
+
+  /** Records the projects created and deleted from now on, until {@link #load} completes. */
+  void startLoading() {
+    synchronized (lock) {
+      changesWhileLoading = new HashMap<>();
+    }
+  }
+
+  /** Stops recording changes, the index is not loaded after all. */
+  void cancelLoading() {
+    synchronized (lock) {
+      changesWhileLoading = null;
+    }
+  }
+
+  /** Replaces the content of the index with {@code projects} and marks the index as loaded. */
+  void load(Iterable<Project.NameKey> projects) {
+    PathTrie<String> loading = new PathTrie<>();
+    for (Project.NameKey project : projects) {
+      loading.put(project.get(), project.get());
+    }
+    synchronized (lock) {
+      if (changesWhileLoading != null) {
+        for (Map.Entry<String, Boolean> e : changesWhileLoading.entrySet()) {
+          if (e.getValue()) {
+            loading.put(e.getKey(), e.getKey());
+          } else {
+            loading.remove(e.getKey());
+          }
+        }
+        changesWhileLoading = null;
+      }
+      names = loading;
+      loaded = true;
+      snapshot = null;
+      removedFromSnapshot.clear();
+    }
+  }
+
+  /** Answers lookups from {@code snapshot} until the index is loaded. */
+  void useSnapshot(ProjectNameSnapshot snapshot) {
+    synchronized (lock) {
+      if (!loaded) {
+        this.snapshot = snapshot;
+      }
+    }
+  }
+
+  /** Stops answering lookups from {@code snapshot}, for example because it is corrupt. */
+  void dropSnapshot(ProjectNameSnapshot snapshot) {
+    synchronized (lock) {
+      if (this.snapshot == snapshot) {
+        this.snapshot = null;
+        removedFromSnapshot.clear();
+      }
+    }
+  }
+
+  /** Whether lookups can be answered from the index, either loaded or backed by a snapshot. */
+  boolean isLoaded() {
+    return loaded || snapshot != null;
+  }
+
+  void add(String projectName) {
+    synchronized (lock) {
+      names.put(projectName, projectName);
+      removedFromSnapshot.remove(projectName);
+      if (changesWhileLoading != null) {
+        changesWhileLoading.put(projectName, true);
+      }
+    }
+  }
+
+  void remove(String projectName) {
+    synchronized (lock) {
+      names.remove(projectName);
+      if (snapshot != null) {
+        removedFromSnapshot.add(projectName);
+      }
+      if (changesWhileLoading != null) {
+        changesWhileLoading.put(projectName, false);
+      }
+    }
+  }
+
+  /** Returns the names of the loaded index, not including those of a snapshot. */
+  List<String> names() {
+    return names.values();
+  }
+
+  int size() {
+    return names.size();
+  }
+
+  /** Estimates the heap used by the loaded index, not including a snapshot. */
+  long estimateBytes() {
+    return names.estimateBytes();
+  }
+
+  /**
+   * Returns the name of the most specific project matching {@code path}.
+   *
+   * @param path requested path, without leading '/'.
+   * @return matching project name or {@code null} if no project matches.
+   */
+  String longestMatch(String path) {
+    String match = names.longestMatch(path);
+    ProjectNameSnapshot s = snapshot;
+    if (s != null) {
+      String fromSnapshot = s.longestMatch(path, removedFromSnapshot);
+      if (fromSnapshot != null && (match == null || fromSnapshot.length() > match.length())) {
+        match = fromSnapshot;
+      }
+    }
+    return match;
+  }
+}
@@ -0,0 +1,183 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.extensions.events.ProjectDeletedListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the {@link ProjectNameIndex} on startup and keeps it current with project events.
+ *
+ * <p>On startup the snapshot written by the previous run, if any, is mapped so that lookups are
+ * answered right away. The index is then loaded in the background, after which a new snapshot is
+ * written. Another snapshot is written when the plugin stops. Project names are loaded with the
+ * {@link BasePathScanner} if possible, and from the project cache otherwise.
+ *
+ * <p>The index can be reloaded with {@link #reload()}, for example after project directories were
+ * changed behind the back of Gerrit. Lookups are answered from the current index meanwhile.
+ */
+@Singleton
+class ProjectNameIndexUpdater
+    implements LifecycleListener, NewProjectCreatedListener, ProjectDeletedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ProjectNameIndex index;
+  private final ProjectCache projectCache;
+  private final BasePathScanner scanner;
+  private final WorkQueue workQueue;
+  private final Path snapshotFile;
+  private volatile boolean loaded;
+  private volatile Instant loadedAt;
+  private Future<?> loading;
+
+  @Inject
+  ProjectNameIndexUpdater(
+      ProjectNameIndex index,
+      ProjectCache projectCache,
+      BasePathScanner scanner,
+      WorkQueue workQueue,
+      @PluginData Path dataDir) {
+    this.index = index;
+    this.projectCache = projectCache;
+    this.scanner = scanner;
+    this.workQueue = workQueue;
+    this.snapshotFile = dataDir.resolve(ProjectNameSnapshot.FILE_NAME);
+  }
+
+  @Override
+  public synchronized void start() {
+    ProjectNameSnapshot snapshot = null;
+    try {
+      snapshot = ProjectNameSnapshot.open(snapshotFile);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot open %s", snapshotFile);
+    }
+    if (snapshot != null) {
+      index.useSnapshot(snapshot);
+    }
+    ProjectNameSnapshot s = snapshot;
+    loading = workQueue.getDefaultQueue().submit(() -> load(s));
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (loading != null) {
+      loading.cancel(true);
+    }
+    writeSnapshot();
+  }
+
+  /**
+   * Reloads the index in the background.
+   *
+   * @return {@code false} if the index is already being loaded.
+   */
+  synchronized boolean reload() {
+    if (isLoading()) {
+      return false;
+    }
+    loading = workQueue.getDefaultQueue().submit(() -> load(null));
+    return true;
+  }
+
+  synchronized boolean isLoading() {
+    return loading != null && !loading.isDone();
+  }
+
+  /** Returns when the index was last loaded, or {@code null} if it was not loaded yet. */
+  Instant loadedAt() {
+    return loadedAt;
+  }
+
+  /** Returns when the snapshot was last written, or {@code null} if there is none. */
+  Instant snapshotWrittenAt() {
+    try {
+      return Files.getLastModifiedTime(snapshotFile).toInstant();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  @VisibleForTesting
+  void load(ProjectNameSnapshot snapshot) {
+    if (snapshot != null && !snapshot.verify()) {
+      logger.atWarning().log("Ignoring %s, its checksum does not match", snapshotFile);
+      index.dropSnapshot(snapshot);
+    }
+    long start = System.nanoTime();
+    index.startLoading();
+    Iterable<Project.NameKey> projects;
+    try {
+      projects = listProjects();
+    } catch (RuntimeException e) {
+      index.cancelLoading();
+      throw e;
+    }
+    index.load(projects);
+    logger.atInfo().log(
+        "Loaded %d project names in %d ms",
+        index.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    loaded = true;
+    loadedAt = Instant.now();
+    writeSnapshot();
+  }
+
+  private Iterable<Project.NameKey> listProjects() {
+    if (scanner.isEnabled()) {
+      try {
+        return scanner.scan();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot scan base path, listing projects instead");
+      }
+    }
+    return projectCache.all();
+  }
+
+  private void writeSnapshot() {
+    if (!loaded) {
+      return;
+    }
+    try {
+      ProjectNameSnapshot.write(snapshotFile, index.names());
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot write %s", snapshotFile);
+    }
+  }
+
+  @Override
+  public void onNewProjectCreated(NewProjectCreatedListener.Event event) {
+    index.add(event.getProjectName());
+  }
+
+  @Override
+  public void onProjectDeleted(ProjectDeletedListener.Event event) {
+    index.remove(event.getProjectName());
+  }
+}
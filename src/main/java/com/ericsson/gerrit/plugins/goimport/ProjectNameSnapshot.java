@@ -0,0 +1,207 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.primitives.UnsignedBytes;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only snapshot of all project names, memory-mapped from the plugin data directory.
+ *
+ * <p>The file holds a header (magic, version, number of names, CRC32 of the rest of the file), the
+ * offsets of the names and then the UTF-8 encoded names, sorted by their bytes. Opening a snapshot
+ * only maps the file and checks its header, so it takes the same time for any number of projects;
+ * names are found by binary search in the mapped file.
+ */
+class ProjectNameSnapshot {
+  static final String FILE_NAME = "project_names.snapshot";
+
+  private static final int MAGIC = 0x474f4e53; // "GONS"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+
+  /** Writes {@code names} to {@code file}, replacing it atomically. */
+  static void write(Path file, Collection<String> names) throws IOException {
+    List<byte[]> encoded = new ArrayList<>(names.size());
+    int dataSize = 0;
+    for (String name : names) {
+      byte[] b = name.getBytes(UTF_8);
+      encoded.add(b);
+      dataSize += b.length;
+    }
+    encoded.sort(UnsignedBytes.lexicographicalComparator());
+
+    int count = encoded.size();
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + 4 * (count + 1) + dataSize);
+    buf.position(HEADER_SIZE);
+    int offset = 0;
+    for (byte[] b : encoded) {
+      buf.putInt(offset);
+      offset += b.length;
+    }
+    buf.putInt(offset);
+    for (byte[] b : encoded) {
+      buf.put(b);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), HEADER_SIZE, buf.capacity() - HEADER_SIZE);
+    buf.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, count).putInt(12, (int) crc.getValue());
+
+    Files.createDirectories(file.getParent());
+    Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+    try {
+      Files.write(tmp, buf.array());
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Maps the snapshot in {@code file}.
+   *
+   * @return the snapshot, or {@code null} if there is none or its header is not valid.
+   */
+  static ProjectNameSnapshot open(Path file) throws IOException {
+    MappedByteBuffer buf;
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (ch.size() < HEADER_SIZE || ch.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+      buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+      return null;
+    }
+    int count = buf.getInt(8);
+    long dataStart = HEADER_SIZE + 4L * (count + 1);
+    if (count < 0
+        || dataStart > buf.capacity()
+        || buf.getInt(HEADER_SIZE + 4 * count) != buf.capacity() - dataStart) {
+      return null;
+    }
+    return new ProjectNameSnapshot(buf, count);
+  }
+
+  private final ByteBuffer buf;
+  private final int count;
+  private final int dataStart;
+
+  private ProjectNameSnapshot(ByteBuffer buf, int count) {
+    this.buf = buf;
+    this.count = count;
+    this.dataStart = HEADER_SIZE + 4 * (count + 1);
+  }
+
+  int size() {
+    return count;
+  }
+
+  /** Checks the CRC32 of the snapshot. This reads the whole file. */
+  boolean verify() {
+    ByteBuffer content = buf.duplicate();
+    content.position(HEADER_SIZE);
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    return (int) crc.getValue() == buf.getInt(12);
+  }
+
+  /**
+   * Returns the name of the most specific project matching {@code path}.
+   *
+   * @param path requested path, without leading '/'.
+   * @param removed names to ignore, as their projects were deleted since the snapshot was taken.
+   * @return matching project name or {@code null} if no project matches.
+   */
+  String longestMatch(String path, Set<String> removed) {
+    byte[] key = path.getBytes(UTF_8);
+    // '/' is a single byte in UTF-8, so segment boundaries can be found in the encoded path.
+    for (int end = key.length; end > 0; end--) {
+      if (end == key.length || key[end] == '/') {
+        int i = indexOf(key, end);
+        if (i >= 0) {
+          String name = name(i);
+          if (!removed.contains(name)) {
+            return name;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private String name(int i) {
+    int start = dataStart + buf.getInt(HEADER_SIZE + 4 * i);
+    int end = dataStart + buf.getInt(HEADER_SIZE + 4 * (i + 1));
+    byte[] b = new byte[end - start];
+    ByteBuffer name = buf.duplicate();
+    name.position(start);
+    name.get(b);
+    return new String(b, UTF_8);
+  }
+
+  /** Binary search of {@code key[0, length)} among the names. */
+  private int indexOf(byte[] key, int length) {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(mid, key, length);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /** Compares name {@code i} to {@code key[0, length)} by unsigned bytes, in place. */
+  private int compare(int i, byte[] key, int length) {
+    int start = dataStart + buf.getInt(HEADER_SIZE + 4 * i);
+    int end = dataStart + buf.getInt(HEADER_SIZE + 4 * (i + 1));
+    if (start < dataStart || end < start || end > buf.capacity()) {
+      // Corrupt offsets; verify() fails for this snapshot and it is dropped.
+      return 1;
+    }
+    int lim = Math.min(end - start, length);
+    for (int k = 0; k < lim; k++) {
+      int c = UnsignedBytes.compare(buf.get(start + k), key[k]);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return (end - start) - length;
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.common.Input;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Rebuilds the project name index, and the module index if the module proxy is enabled, in the
+ * background. Go-get requests are answered from the current indexes until the new ones are built.
+ */
+@RequiresCapability(ManageCapability.ID)
+@Singleton
+class Reindex implements RestModifyView<ConfigResource, Input> {
+  private final ProjectNameIndexUpdater projectNameIndexUpdater;
+  private final ModuleIndexer moduleIndexer;
+
+  @Inject
+  Reindex(ProjectNameIndexUpdater projectNameIndexUpdater, ModuleIndexer moduleIndexer) {
+    this.projectNameIndexUpdater = projectNameIndexUpdater;
+    this.moduleIndexer = moduleIndexer;
+  }
+
+  @Override
+  public Response<?> apply(ConfigResource resource, Input input)
+      throws ResourceConflictException {
+    if (!projectNameIndexUpdater.reload()) {
+      throw new ResourceConflictException("project names are already being loaded");
+    }
+    moduleIndexer.reindexAll();
+    return Response.accepted("Reindexing started");
+  }
+}
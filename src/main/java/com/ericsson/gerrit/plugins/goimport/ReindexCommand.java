@@ -0,0 +1,39 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.common.Input;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.inject.Inject;
+
+@RequiresCapability(ManageCapability.ID)
+@CommandMetaData(name = "reindex", description = "Rebuild the go-import indexes in the background")
+final class ReindexCommand extends SshCommand {
+  @Inject private Reindex reindex;
+
+  @Override
+  protected void run() throws UnloggedFailure {
+    try {
+      reindex.apply(new ConfigResource(), new Input());
+    } catch (ResourceConflictException e) {
+      throw die(e.getMessage());
+    }
+    stdout.println("Reindexing started, go-get requests are served from the current index");
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.gerrit.server.quota.QuotaException;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/** Resolves a batch of go import paths in a single REST call. */
+@Singleton
+class ResolveImportPaths implements RestModifyView<ConfigResource, ResolveImportPaths.Input> {
+  static final int MAX_PATHS = 1000;
+
+  public static class Input {
+    public List<String> paths;
+  }
+
+  public static class ImportPathInfo {
+    public String path;
+    public String project;
+    public String importPrefix;
+    public String vcs;
+    public String repoRoot;
+    public Boolean anonymous;
+    public String proxyUrl;
+  }
+
+  private final GoImportResolver resolver;
+  private final PermissionBackend permissions;
+  private final Provider<CurrentUser> user;
+  private final GoGetLimiter limiter;
+
+  @Inject
+  ResolveImportPaths(
+      GoImportResolver resolver,
+      PermissionBackend permissions,
+      Provider<CurrentUser> user,
+      GoGetLimiter limiter) {
+    this.resolver = resolver;
+    this.permissions = permissions;
+    this.user = user;
+    this.limiter = limiter;
+  }
+
+  @Override
+  public Response<List<ImportPathInfo>> apply(ConfigResource resource, Input input)
+      throws BadRequestException, QuotaException {
+    if (input == null || input.paths == null) {
+      throw new BadRequestException("paths are required");
+    }
+    if (input.paths.size() > MAX_PATHS) {
+      throw new BadRequestException("at most " + MAX_PATHS + " paths can be resolved at once");
+    }
+    // Every path counts as one go-get request against the rate limit of the caller, up to its
+    // burst, so that a batch is no cheaper a way to probe for project names than go-get itself.
+    long wait = limiter.isRateLimited() ? limiter.checkRate(client(), input.paths.size()) : 0;
+    if (wait > 0) {
+      long seconds = TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1;
+      throw new QuotaException("rate limit exceeded, retry in " + seconds + " s");
+    }
+    List<ImportPathInfo> result = new ArrayList<>(input.paths.size());
+    for (String path : input.paths) {
+      result.add(resolve(path));
+    }
+    return Response.ok(result);
+  }
+
+  private ImportPathInfo resolve(String importPath) {
+    ImportPathInfo info = new ImportPathInfo();
+    info.path = importPath;
+    if (importPath == null) {
+      return info;
+    }
+    // Import paths are accepted with or without the host part. Without it, they are relative to
+    // the canonical web URL.
+    String path = importPath;
+    GoImportResolver.Host host = resolver.hostOfImportPath(path);
+    if (host != null) {
+      path = path.substring(host.importPrefix(false).length());
+    } else {
+      host = resolver.defaultHost;
+      if (path.startsWith("/")) {
+        path = path.substring(1);
+      }
+    }
+    boolean authenticated = path.startsWith(GoImportResolver.AUTHENTICATED_PATH);
+    if (authenticated) {
+      path = path.substring(GoImportResolver.AUTHENTICATED_PATH.length());
+    }
+    String project = resolver.getLongestMatch(host, path);
+    if (project != null
+        && permissions
+            .currentUser()
+            .project(Project.nameKey(project))
+            .testOrFalse(ProjectPermission.ACCESS)) {
+      GoImportResolver.Resolution resolution = resolver.resolve(host, project, authenticated);
+      info.project = resolution.project;
+      info.importPrefix = resolution.importPrefix;
+      info.vcs = "git";
+      info.repoRoot = resolution.repoRoot;
+      info.proxyUrl = resolution.proxyUrl;
+      info.anonymous = resolution.anonymous;
+    }
+    return info;
+  }
+
+  /** Identifies the caller like go-get requests are for the rate limit, by its user name. */
+  private String client() {
+    CurrentUser caller = user.get();
+    Optional<String> userName = caller.getUserName();
+    if (userName.isPresent()) {
+      return "user:" + userName.get();
+    }
+    // The address of anonymous callers is not known to REST views, so they share one bucket.
+    return caller.isIdentifiedUser() ? "account:" + caller.getAccountId().get() : "anonymous";
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of the UTF-8 encoded {@code go-import} content of go-get responses.
+ *
+ * <p>Entries of a project are evicted whenever its {@code refs/meta/config} is updated.
+ */
+@Singleton
+class ResponseCache implements GitReferenceUpdatedListener {
+  static final String NAME = "responses";
+
+  static com.google.inject.Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(NAME, Key.class, byte[].class)
+            .maximumWeight(4 << 20)
+            .weigher(ResponseWeigher.class);
+      }
+    };
+  }
+
+  static class Key {
+    /** Vanity host of the request, {@code null} for the canonical web URL. */
+    final String host;
+
+    final String project;
+    final boolean authenticated;
+    final boolean anonymousReadable;
+
+    Key(String project, boolean authenticated, boolean anonymousReadable) {
+      this(null, project, authenticated, anonymousReadable);
+    }
+
+    Key(String host, String project, boolean authenticated, boolean anonymousReadable) {
+      this.host = host;
+      this.project = project;
+      this.authenticated = authenticated;
+      this.anonymousReadable = anonymousReadable;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof Key) {
+        Key other = (Key) o;
+        return Objects.equals(host, other.host)
+            && project.equals(other.project)
+            && authenticated == other.authenticated
+            && anonymousReadable == other.anonymousReadable;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      // Computed by hand: Objects.hash would allocate and box on every cached response.
+      int h = 31 * Objects.hashCode(host) + project.hashCode();
+      h = 31 * h + Boolean.hashCode(authenticated);
+      return 31 * h + Boolean.hashCode(anonymousReadable);
+    }
+
+    @Override
+    public String toString() {
+      return (host != null ? host + "/" : "")
+          + project
+          + ":"
+          + authenticated
+          + ":"
+          + anonymousReadable;
+    }
+  }
+
+  static class ResponseWeigher implements Weigher<Key, byte[]> {
+    @Override
+    public int weigh(Key key, byte[] value) {
+      return (key.host != null ? key.host.length() * 2 : 0)
+          + key.project.length() * 2
+          + value.length;
+    }
+  }
+
+  private final Cache<Key, byte[]> cache;
+
+  @Inject
+  ResponseCache(@Named(NAME) Cache<Key, byte[]> cache) {
+    this.cache = cache;
+  }
+
+  byte[] get(Key key, Callable<byte[]> renderer) throws ExecutionException {
+    return cache.get(key, renderer);
+  }
+
+  /** Returns the cached content for {@code key}, or {@code null} without rendering it. */
+  byte[] getIfPresent(Key key) {
+    return cache.getIfPresent(key);
+  }
+
+  void evict(String project) {
+    cache.asMap().keySet().removeIf(k -> k.project.equals(project));
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  long size() {
+    return cache.size();
+  }
+
+  void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (RefNames.REFS_CONFIG.equals(event.getRefName())) {
+      evict(event.getProjectName());
+    }
+  }
+}
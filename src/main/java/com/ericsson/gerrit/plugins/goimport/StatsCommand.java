@@ -0,0 +1,74 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.inject.Inject;
+import java.util.Locale;
+import java.util.Map;
+import org.kohsuke.args4j.Option;
+
+@RequiresCapability(ManageCapability.ID)
+@CommandMetaData(name = "stats", description = "Show go-import index and cache statistics")
+final class StatsCommand extends SshCommand {
+  @Option(name = "--json", usage = "print the statistics as JSON")
+  private boolean json;
+
+  @Inject private GetStats getStats;
+
+  @Override
+  protected void run() {
+    GetStats.StatsInfo stats = getStats.apply(new ConfigResource()).value();
+    if (json) {
+      stdout.println(OutputFormat.JSON.newGson().toJson(stats));
+      return;
+    }
+    GetStats.ProjectNameIndexInfo names = stats.projectNameIndex;
+    stdout.format("Project name index:%n");
+    stdout.format("  projects:       %d%n", names.projects);
+    stdout.format("  loaded:         %s%s%n", names.loaded, names.loading ? " (loading)" : "");
+    stdout.format("  memory:         %d KiB%n", names.memoryBytes / 1024);
+    stdout.format("  age:            %s%n", seconds(names.ageSeconds));
+    stdout.format("  snapshot age:   %s%n", seconds(names.snapshotAgeSeconds));
+    stdout.format("Module index:%n");
+    stdout.format("  modules:        %d%n", stats.moduleIndex.modules);
+    stdout.format("  pending scans:  %d%n", stats.moduleIndex.pendingScans);
+    stdout.format("  zip cache:      %d KiB%n", stats.moduleIndex.zipCacheBytes / 1024);
+    stdout.format("Caches:%n");
+    stdout.format("  %-20s %10s %10s %10s %6s%n", "name", "entries", "hits", "misses", "hit%");
+    for (Map.Entry<String, GetStats.CacheInfo> e : stats.caches.entrySet()) {
+      GetStats.CacheInfo c = e.getValue();
+      stdout.format(
+          "  %-20s %10d %10d %10d %6s%n",
+          e.getKey(),
+          c.entries,
+          c.hits,
+          c.misses,
+          c.hitRatio != null ? String.format(Locale.ROOT, "%.1f", c.hitRatio * 100) : "");
+    }
+    stdout.format("Top import paths:%n");
+    for (GetStats.ImportPathInfo p : stats.topImportPaths) {
+      stdout.format("  %10d  %s%n", p.requests, p.path);
+    }
+  }
+
+  private static String seconds(Long s) {
+    return s != null ? s + " s" : "-";
+  }
+}
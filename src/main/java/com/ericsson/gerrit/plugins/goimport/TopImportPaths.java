@@ -0,0 +1,64 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the go-get requests served per import path, to report the most requested ones.
+ *
+ * <p>At most {@link #MAX_PATHS} paths are counted; the least recently requested ones are dropped
+ * beyond, so the counts are approximate for paths that are not requested often.
+ */
+@Singleton
+class TopImportPaths {
+  @VisibleForTesting static final int MAX_PATHS = 4096;
+
+  private final Cache<String, LongAdder> counts =
+      CacheBuilder.newBuilder().maximumSize(MAX_PATHS).build();
+
+  void record(String importPath) {
+    LongAdder count = counts.getIfPresent(importPath);
+    if (count == null) {
+      count = counts.asMap().computeIfAbsent(importPath, p -> new LongAdder());
+    }
+    count.increment();
+  }
+
+  /** Returns the {@code limit} most requested import paths with their counts, most first. */
+  Map<String, Long> top(int limit) {
+    List<Map.Entry<String, Long>> all = new ArrayList<>();
+    for (Map.Entry<String, LongAdder> e : counts.asMap().entrySet()) {
+      all.add(Map.entry(e.getKey(), e.getValue().sum()));
+    }
+    all.sort(
+        Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+            .thenComparing(Map.Entry.comparingByKey()));
+    Map<String, Long> top = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> e : all.subList(0, Math.min(limit, all.size()))) {
+      top.put(e.getKey(), e.getValue());
+    }
+    return top;
+  }
+}
@@ -0,0 +1,224 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.RefPermission;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AnonymousAccessCacheTest {
+  private static final String PROJECT_NAME = "projectName";
+  private static final String PARENT_NAME = "parentName";
+
+  @Mock private AnonymousUser mockAnon;
+  @Mock private PermissionBackend mockPerms;
+  @Mock private PermissionBackend.WithUser mockPermsWithUser;
+  @Mock private PermissionBackend.ForRef mockPermsForRef;
+  @Mock private ProjectCache mockProjectCache;
+  @Mock private ProjectState mockProjectState;
+  @Mock private ProjectState mockParentState;
+  @Mock private GitReferenceUpdatedListener.Event mockEvent;
+
+  private final GoImportMetrics metrics = new GoImportMetrics(new DisabledMetricMaker());
+  private final List<Runnable> refreshes = new ArrayList<>();
+  private final FakeTicker ticker = new FakeTicker();
+  private AnonymousAccessCache unitUnderTest;
+
+  private static class FakeTicker extends Ticker {
+    long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    unitUnderTest =
+        new AnonymousAccessCache(
+            CacheBuilder.newBuilder().recordStats().build(),
+            new AnonymousAccessCache.Loader(() -> mockAnon, mockPerms, metrics),
+            metrics,
+            mockProjectCache,
+            new AllProjectsName("All-Projects"));
+    when(mockPerms.user(mockAnon)).thenReturn(mockPermsWithUser);
+    when(mockPermsWithUser.ref(any())).thenReturn(mockPermsForRef);
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(true);
+  }
+
+  @Test
+  public void testAllowsAnonymousAccessIsCached() throws Exception {
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isTrue();
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isTrue();
+    verify(mockPermsForRef, times(1)).testOrFalse(RefPermission.READ);
+    assertThat(unitUnderTest.hitCount()).isEqualTo(1);
+    assertThat(unitUnderTest.missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testCachedAnonymousAccessDoesNotCheck() throws Exception {
+    assertThat(unitUnderTest.cachedAnonymousAccess(PROJECT_NAME)).isNull();
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isTrue();
+    assertThat(unitUnderTest.cachedAnonymousAccess(PROJECT_NAME)).isTrue();
+    verify(mockPermsForRef, times(1)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testProjectConfigUpdateInvalidates() throws Exception {
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    configUpdated(PROJECT_NAME);
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    verify(mockPermsForRef, times(2)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testParentConfigUpdateInvalidates() throws Exception {
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
+        .thenReturn(Optional.of(mockProjectState));
+    when(mockProjectState.parents())
+        .thenReturn(FluentIterable.from(ImmutableList.of(mockParentState)));
+    when(mockParentState.getName()).thenReturn(PARENT_NAME);
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    configUpdated(PARENT_NAME);
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    verify(mockPermsForRef, times(2)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testUnrelatedConfigUpdateKeepsEntry() throws Exception {
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
+        .thenReturn(Optional.of(mockProjectState));
+    when(mockProjectState.parents())
+        .thenReturn(FluentIterable.from(ImmutableList.of(mockParentState)));
+    when(mockParentState.getName()).thenReturn(PARENT_NAME);
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    configUpdated("unrelated");
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    verify(mockPermsForRef, times(1)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testConfigUpdateDoesNotLoadProjects() throws Exception {
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
+        .thenReturn(Optional.of(mockProjectState));
+    when(mockProjectState.parents())
+        .thenReturn(FluentIterable.from(ImmutableList.of(mockParentState)));
+    when(mockParentState.getName()).thenReturn(PARENT_NAME);
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    configUpdated("unrelated");
+    configUpdated(PARENT_NAME);
+    verify(mockProjectCache, times(1)).get(any(Project.NameKey.class));
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    verify(mockPermsForRef, times(2)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testUnrelatedConfigUpdateKeepsEntryOfUncachedProject() throws Exception {
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME))).thenReturn(Optional.empty());
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    configUpdated("unrelated");
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    verify(mockPermsForRef, times(1)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testAllProjectsConfigUpdateInvalidatesAll() throws Exception {
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    configUpdated("All-Projects");
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    verify(mockPermsForRef, times(2)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testStaleEntryIsServedAndRefreshed() throws Exception {
+    useRefreshAfter(10);
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isTrue();
+    ticker.nanos = TimeUnit.SECONDS.toNanos(5);
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isTrue();
+    assertThat(refreshes).isEmpty();
+
+    ticker.nanos = TimeUnit.SECONDS.toNanos(11);
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(false);
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isTrue();
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isTrue();
+    assertThat(refreshes).hasSize(1);
+
+    refreshes.remove(0).run();
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isFalse();
+    assertThat(refreshes).isEmpty();
+    verify(mockPermsForRef, times(2)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testRefreshOfInvalidatedEntryIsDiscarded() throws Exception {
+    useRefreshAfter(10);
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    ticker.nanos = TimeUnit.SECONDS.toNanos(11);
+    unitUnderTest.allowsAnonymousAccess(PROJECT_NAME);
+    configUpdated("All-Projects");
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(false);
+    refreshes.remove(0).run();
+    assertThat(unitUnderTest.missCount()).isEqualTo(1);
+    assertThat(unitUnderTest.allowsAnonymousAccess(PROJECT_NAME)).isFalse();
+    assertThat(unitUnderTest.missCount()).isEqualTo(2);
+  }
+
+  private void useRefreshAfter(long seconds) {
+    unitUnderTest =
+        new AnonymousAccessCache(
+            CacheBuilder.newBuilder().recordStats().build(),
+            new AnonymousAccessCache.Loader(() -> mockAnon, mockPerms, metrics),
+            metrics,
+            mockProjectCache,
+            new AllProjectsName("All-Projects"),
+            TimeUnit.SECONDS.toNanos(seconds),
+            refreshes::add,
+            ticker);
+  }
+
+  private void configUpdated(String projectName) {
+    when(mockEvent.getRefName()).thenReturn(RefNames.REFS_CONFIG);
+    when(mockEvent.getProjectName()).thenReturn(projectName);
+    unitUnderTest.onGitReferenceUpdated(mockEvent);
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gerrit.entities.Project;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BasePathScannerTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+  @Rule public TemporaryFolder outside = new TemporaryFolder();
+
+  private Path basePath;
+  private BasePathScanner unitUnderTest;
+
+  @Before
+  public void setUp() throws Exception {
+    basePath = tmp.getRoot().toPath();
+    unitUnderTest = new BasePathScanner(basePath, 2);
+  }
+
+  private void createRepository(String name) throws IOException {
+    Path repo = basePath.resolve(name);
+    Files.createDirectories(repo.resolve("objects"));
+    Files.createDirectories(repo.resolve("refs"));
+    Files.write(repo.resolve("HEAD"), "ref: refs/heads/master\n".getBytes(UTF_8));
+  }
+
+  @Test
+  public void testScan() throws Exception {
+    createRepository("All-Projects.git");
+    createRepository("bob.git");
+    createRepository("bob/my-project.git");
+    createRepository("bob/my-project/some-other-project.git");
+    createRepository("tom/without-suffix");
+    Files.createDirectories(basePath.resolve("tom/not-a-repository/objects"));
+    Files.createDirectories(basePath.resolve("empty"));
+    Files.write(basePath.resolve("file"), new byte[0]);
+
+    assertThat(unitUnderTest.scan())
+        .containsExactly(
+            Project.nameKey("All-Projects"),
+            Project.nameKey("bob"),
+            Project.nameKey("bob/my-project"),
+            Project.nameKey("bob/my-project/some-other-project"),
+            Project.nameKey("tom/without-suffix"));
+  }
+
+  @Test
+  public void testScanFollowsLinksAndSkipsDotGit() throws Exception {
+    createRepository("bob/work/.git");
+    Path other = outside.getRoot().toPath();
+    Files.createDirectories(other.resolve("linked.git/objects"));
+    Files.write(other.resolve("linked.git/HEAD"), "ref: refs/heads/master\n".getBytes(UTF_8));
+    Files.createDirectories(other.resolve("dir/nested.git/objects"));
+    Files.write(other.resolve("dir/nested.git/HEAD"), "ref: refs/heads/master\n".getBytes(UTF_8));
+    Files.createSymbolicLink(basePath.resolve("linked.git"), other.resolve("linked.git"));
+    Files.createSymbolicLink(basePath.resolve("dir"), other.resolve("dir"));
+    Files.createSymbolicLink(basePath.resolve("bob/loop"), basePath);
+
+    assertThat(unitUnderTest.scan())
+        .containsExactly(Project.nameKey("linked"), Project.nameKey("dir/nested"));
+  }
+
+  @Test
+  public void testScanWithoutBasePath() throws Exception {
+    unitUnderTest = new BasePathScanner(basePath.resolve("missing"), 2);
+    assertThrows(IOException.class, () -> unitUnderTest.scan());
+  }
+
+  @Test
+  public void testIsEnabled() throws Exception {
+    assertThat(unitUnderTest.isEnabled()).isTrue();
+    assertThat(new BasePathScanner(null, 2).isEnabled()).isFalse();
+    assertThat(new BasePathScanner(basePath, 0).isEnabled()).isFalse();
+  }
+}
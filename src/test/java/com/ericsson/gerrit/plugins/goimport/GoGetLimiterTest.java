@@ -0,0 +1,98 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class GoGetLimiterTest {
+  private static final String CLIENT = "192.0.2.1";
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final FakeTicker ticker = new FakeTicker();
+  private GoGetLimiter unitUnderTest;
+
+  private static class FakeTicker extends Ticker {
+    long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+
+  @Test
+  public void testUnlimited() throws Exception {
+    unitUnderTest = new GoGetLimiter(new Configuration(new Config(), "go-import"));
+    assertThat(unitUnderTest.isRateLimited()).isFalse();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+      assertThat(unitUnderTest.tryAcquire()).isTrue();
+    }
+  }
+
+  @Test
+  public void testBurstThenRate() throws Exception {
+    // One request per second, three at once.
+    unitUnderTest = new GoGetLimiter(60, 3, 0, ticker);
+    assertThat(unitUnderTest.isRateLimited()).isTrue();
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(SECOND);
+
+    ticker.nanos = SECOND / 4;
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(SECOND * 3 / 4);
+
+    ticker.nanos = SECOND;
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(SECOND);
+  }
+
+  @Test
+  public void testBucketRefills() throws Exception {
+    unitUnderTest = new GoGetLimiter(60, 2, 0, ticker);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isGreaterThan(0);
+
+    ticker.nanos = 10 * SECOND;
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isGreaterThan(0);
+  }
+
+  @Test
+  public void testClientsAreLimitedSeparately() throws Exception {
+    unitUnderTest = new GoGetLimiter(60, 1, 0, ticker);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isEqualTo(0);
+    assertThat(unitUnderTest.checkRate(CLIENT)).isGreaterThan(0);
+    assertThat(unitUnderTest.checkRate("192.0.2.2")).isEqualTo(0);
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    unitUnderTest = new GoGetLimiter(0, 0, 2, ticker);
+    assertThat(unitUnderTest.tryAcquire()).isTrue();
+    assertThat(unitUnderTest.tryAcquire()).isTrue();
+    assertThat(unitUnderTest.tryAcquire()).isFalse();
+    unitUnderTest.release();
+    assertThat(unitUnderTest.tryAcquire()).isTrue();
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.ericsson.gerrit.plugins.goimport.GoGetTracer.Phase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GoGetTracerTest {
+  private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final LogCapture log = new LogCapture();
+  private GoGetTracer unitUnderTest;
+
+  /** Collects the messages logged by {@link GoGetTracer}. */
+  static class LogCapture extends Handler implements AutoCloseable {
+    private final Logger logger = Logger.getLogger(GoGetTracer.class.getName());
+    final List<String> messages = new ArrayList<>();
+
+    void install() {
+      logger.addHandler(this);
+    }
+
+    @Override
+    public void close() {
+      logger.removeHandler(this);
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+      messages.add(record.getMessage());
+    }
+
+    @Override
+    public void flush() {}
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    log.install();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    log.close();
+  }
+
+  @Test
+  public void testPhases() throws Exception {
+    GoGetTracer.Trace trace = new GoGetTracer.Trace().reset("/bob/my-project", false);
+    try (GoGetTracer.Trace t = trace.start(Phase.PROJECT_LOOKUP)) {
+      trace.setProbes(2);
+      Thread.sleep(2);
+    }
+    try (GoGetTracer.Trace t = trace.start(Phase.WRITE)) {
+      Thread.sleep(1);
+    }
+    try (GoGetTracer.Trace t = trace.start(Phase.WRITE)) {
+      Thread.sleep(1);
+    }
+    trace.setProject("bob/my-project");
+
+    assertThat(trace.nanos(Phase.PROJECT_LOOKUP)).isAtLeast(2 * MILLISECOND);
+    assertThat(trace.nanos(Phase.PERMISSION_CHECK)).isEqualTo(0);
+    assertThat(trace.nanos(Phase.WRITE)).isAtLeast(2 * MILLISECOND);
+    assertThat(trace.probes()).isEqualTo(2);
+    assertThat(trace.project()).isEqualTo("bob/my-project");
+
+    trace.reset("/tom/my-project", false);
+    assertThat(trace.nanos(Phase.WRITE)).isEqualTo(0);
+    assertThat(trace.probes()).isEqualTo(0);
+    assertThat(trace.project()).isNull();
+  }
+
+  @Test
+  public void testLogSlowRequest() throws Exception {
+    unitUnderTest = new GoGetTracer(MILLISECOND);
+    GoGetTracer.Trace trace = unitUnderTest.start("/bob/my-project/pkg");
+    try (GoGetTracer.Trace t = trace.start(Phase.PROJECT_LOOKUP)) {
+      trace.setProbes(3);
+    }
+    trace.setProject("bob/my-project");
+
+    unitUnderTest.finish(trace, 200, MILLISECOND / 2);
+    assertThat(log.messages).isEmpty();
+
+    unitUnderTest.finish(trace, 200, 5 * MILLISECOND);
+    assertThat(log.messages).hasSize(1);
+    assertThat(log.messages.get(0))
+        .matches(
+            "Slow go-get request /bob/my-project/pkg: 5\\.000 ms, status 200,"
+                + " project bob/my-project, 3 project cache probes;"
+                + " lookup \\d+\\.\\d{3} ms, permission check 0\\.000 ms,"
+                + " render 0\\.000 ms, coalesced wait 0\\.000 ms, write 0\\.000 ms");
+  }
+
+  @Test
+  public void testTraceIsReusedPerThread() throws Exception {
+    unitUnderTest = new GoGetTracer(MILLISECOND);
+    GoGetTracer.Trace trace = unitUnderTest.start("/bob/my-project");
+    trace.setProject("bob/my-project");
+    assertThat(unitUnderTest.start("/tom/my-project")).isSameInstanceAs(trace);
+    assertThat(trace.project()).isNull();
+  }
+
+  @Test
+  public void testDisabledWithoutThreshold() throws Exception {
+    unitUnderTest = new GoGetTracer(new Configuration(new Config(), "go-import"));
+    GoGetTracer.Trace trace = unitUnderTest.start("/bob/my-project");
+    assertThat(trace).isSameInstanceAs(GoGetTracer.Trace.DISABLED);
+    try (GoGetTracer.Trace t = trace.start(Phase.PROJECT_LOOKUP)) {
+      trace.setProbes(3);
+    }
+    assertThat(trace.nanos(Phase.PROJECT_LOOKUP)).isEqualTo(0);
+    assertThat(trace.probes()).isEqualTo(0);
+
+    unitUnderTest.finish(trace, 200, Long.MAX_VALUE);
+    assertThat(log.messages).isEmpty();
+  }
+
+  @Test
+  public void testIsSlow() throws Exception {
+    unitUnderTest = new GoGetTracer(100 * MILLISECOND);
+    assertThat(unitUnderTest.isSlow(99 * MILLISECOND)).isFalse();
+    assertThat(unitUnderTest.isSlow(100 * MILLISECOND)).isTrue();
+  }
+}
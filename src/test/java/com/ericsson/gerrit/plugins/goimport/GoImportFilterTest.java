@@ -18,14 +18,25 @@ import static com.ericsson.gerrit.plugins.goimport.GoImportFilter.CONTENT_PLH;
 import static com.ericsson.gerrit.plugins.goimport.GoImportFilter.PAGE_200;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Bytes;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
 import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.RefPermission;
 import com.google.gerrit.server.project.ProjectCache;
@@ -33,15 +44,28 @@ import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Provider;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -65,14 +89,26 @@ public class GoImportFilterTest {
 
   private static byte[] response200(boolean allowAnon, boolean authenticated) {
     if (authenticated) {
-      return PAGE_200.replace(CONTENT_PLH, AUTH_CONTENT).getBytes();
+      return PAGE_200.replace(CONTENT_PLH, AUTH_CONTENT).getBytes(UTF_8);
     } else if (allowAnon) {
-      return PAGE_200.replace(CONTENT_PLH, ANON_CONTENT).getBytes();
+      return PAGE_200.replace(CONTENT_PLH, ANON_CONTENT).getBytes(UTF_8);
     }
-    return PAGE_200.replace(CONTENT_PLH, CONTENT).getBytes();
+    return PAGE_200.replace(CONTENT_PLH, CONTENT).getBytes(UTF_8);
   }
 
+  private byte[] written() throws IOException {
+    ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+    verify(mockOutputStream, atLeast(0)).write(captor.capture());
+    return Bytes.concat(captor.getAllValues().toArray(new byte[0][]));
+  }
+
+  private final GoImportMetrics metrics = new GoImportMetrics(new DisabledMetricMaker());
   private GoImportFilter unitUnderTest;
+  private GoImportResolver resolver;
+  private ProjectNameIndex projectNameIndex;
+  private ResponseCache responseCache;
+  private MissingProjectCache missingProjects;
+  private AnonymousAccessCache anonymousAccess;
 
   @Mock private Provider<AnonymousUser> mockAnonProvider;
   @Mock private AnonymousUser mockAnon;
@@ -88,7 +124,18 @@ public class GoImportFilterTest {
 
   @Before
   public void setUp() throws Exception {
-    unitUnderTest = new GoImportFilter(mockAnonProvider, mockPerms, mockProjectCache, PROD_URL);
+    projectNameIndex = new ProjectNameIndex();
+    responseCache = new ResponseCache(CacheBuilder.newBuilder().build());
+    missingProjects = new MissingProjectCache(CacheBuilder.newBuilder().build());
+    anonymousAccess =
+        new AnonymousAccessCache(
+            CacheBuilder.newBuilder().build(),
+            new AnonymousAccessCache.Loader(mockAnonProvider, mockPerms, metrics),
+            metrics,
+            mockProjectCache,
+            new AllProjectsName("All-Projects"));
+    resolver = newResolver(PROD_URL);
+    unitUnderTest = new GoImportFilter(resolver, responseCache, metrics);
     assertThat(unitUnderTest).isNotNull();
     when(mockResponse.getOutputStream()).thenReturn(mockOutputStream);
     when(mockAnonProvider.get()).thenReturn(mockAnon);
@@ -96,22 +143,47 @@ public class GoImportFilterTest {
     when(mockPermsWithUser.ref(any())).thenReturn(mockPermsForRef);
   }
 
+  private GoImportResolver newResolver(String webUrl) throws URISyntaxException {
+    return newResolver(webUrl, new Config());
+  }
+
+  private GoImportResolver newResolver(String webUrl, Config cfg) throws URISyntaxException {
+    return newResolver(webUrl, new Configuration(cfg, "go-import"));
+  }
+
+  private GoImportResolver newResolver(String webUrl, Configuration config)
+      throws URISyntaxException {
+    return new GoImportResolver(
+        mockProjectCache,
+        projectNameIndex,
+        missingProjects,
+        anonymousAccess,
+        metrics,
+        config,
+        webUrl);
+  }
+
+  private void useVanityHost() throws URISyntaxException {
+    Config pluginCfg = new Config();
+    pluginCfg.setString(
+        Configuration.HOST, "go.corp.example", Configuration.PROJECT_ROOT, "golang");
+    pluginCfg.setString(
+        Configuration.HOST, "go.corp.example", Configuration.CLONE_URL, "https://git.corp.example");
+    resolver = newResolver(PROD_URL, new Configuration(new Config(), pluginCfg, "go-import"));
+    unitUnderTest = new GoImportFilter(resolver, responseCache, metrics);
+  }
+
   @Test
   public void testConstructor() throws Exception {
-    assertThat(unitUnderTest.webUrl.endsWith("/")).isTrue();
-    unitUnderTest =
-        new GoImportFilter(
-            mockAnonProvider,
-            mockPerms,
-            mockProjectCache,
-            "http://gerrit-review.googlesource.com:8080/");
-    assertThat(unitUnderTest.webUrl.endsWith("/")).isTrue();
-    assertThat(unitUnderTest.projectPrefix).isNotNull();
+    assertThat(resolver.webUrl.endsWith("/")).isTrue();
+    resolver = newResolver("http://gerrit-review.googlesource.com:8080/");
+    assertThat(resolver.webUrl.endsWith("/")).isTrue();
+    assertThat(resolver.projectPrefix).isNotNull();
   }
 
   @Test(expected = URISyntaxException.class)
   public void testConstructorWithURISyntaxException() throws Exception {
-    unitUnderTest = new GoImportFilter(mockAnonProvider, mockPerms, mockProjectCache, "\\\\");
+    resolver = newResolver("\\\\");
   }
 
   @Test
@@ -122,7 +194,7 @@ public class GoImportFilterTest {
 
   @Test
   public void testDoFilterWithoutGoGetParameter() throws Exception {
-    when(mockRequest.getParameter("go-get")).thenReturn(null);
+    when(mockRequest.getQueryString()).thenReturn(null);
     unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
     verify(mockOutputStream, times(0)).write(any(byte[].class));
     verify(mockChain, times(1)).doFilter(mockRequest, mockResponse);
@@ -130,21 +202,45 @@ public class GoImportFilterTest {
 
   @Test
   public void testDoFilterWithWrongGoGetParameterValue() throws Exception {
-    when(mockRequest.getParameter("go-get")).thenReturn("2");
+    when(mockRequest.getQueryString()).thenReturn("go-get=2");
     unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
     verify(mockOutputStream, times(0)).write(any(byte[].class));
     verify(mockChain, times(1)).doFilter(mockRequest, mockResponse);
   }
 
+  @Test
+  public void testDoFilterWithSkippedGerritPath() throws Exception {
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME + "/info/refs");
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    when(mockRequest.getServletPath()).thenReturn("/a/changes/1");
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    verify(mockChain, times(2)).doFilter(mockRequest, mockResponse);
+    verify(mockProjectCache, times(0)).get(any(Project.NameKey.class));
+  }
+
+  @Test
+  public void testHasGoGetParameter() throws Exception {
+    assertThat(GoImportFilter.hasGoGetParameter("go-get=1")).isTrue();
+    assertThat(GoImportFilter.hasGoGetParameter("x=y&go-get=1")).isTrue();
+    assertThat(GoImportFilter.hasGoGetParameter("go-get=1&x=y")).isTrue();
+    assertThat(GoImportFilter.hasGoGetParameter("x=go-get=1&go-get=1")).isTrue();
+    assertThat(GoImportFilter.hasGoGetParameter(null)).isFalse();
+    assertThat(GoImportFilter.hasGoGetParameter("")).isFalse();
+    assertThat(GoImportFilter.hasGoGetParameter("go-get=10")).isFalse();
+    assertThat(GoImportFilter.hasGoGetParameter("xgo-get=1")).isFalse();
+    assertThat(GoImportFilter.hasGoGetParameter("x=go-get=1")).isFalse();
+  }
+
   @Test
   public void testDoFilterWithExistingProject() throws Exception {
     when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
-    when(mockRequest.getParameter("go-get")).thenReturn("1");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
     when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
         .thenReturn(Optional.of(mockProjectState));
     when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(false);
     unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
-    verify(mockOutputStream, times(1)).write(response200(false, false));
+    assertThat(written()).isEqualTo(response200(false, false));
     verify(mockChain, times(0)).doFilter(mockRequest, mockResponse);
     verify(mockProjectCache, times(1)).get(any(Project.NameKey.class));
     verify(mockResponse, times(1)).setStatus(200);
@@ -154,12 +250,12 @@ public class GoImportFilterTest {
   @Test
   public void testDoFilterAuthenticatedWithExistingProject() throws Exception {
     when(mockRequest.getServletPath()).thenReturn("/a/" + PROJECT_NAME);
-    when(mockRequest.getParameter("go-get")).thenReturn("1");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
     when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
         .thenReturn(Optional.of(mockProjectState));
     when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(false);
     unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
-    verify(mockOutputStream, times(1)).write(response200(false, true));
+    assertThat(written()).isEqualTo(response200(false, true));
     verify(mockChain, times(0)).doFilter(mockRequest, mockResponse);
     verify(mockProjectCache, times(1)).get(any(Project.NameKey.class));
     verify(mockResponse, times(1)).setStatus(200);
@@ -169,12 +265,12 @@ public class GoImportFilterTest {
   @Test
   public void testDoFilterWithExistingProjectAndPackage() throws Exception {
     when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME + "/my/package");
-    when(mockRequest.getParameter("go-get")).thenReturn("1");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
     when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
         .thenReturn(Optional.of(mockProjectState));
     when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(false);
     unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
-    verify(mockOutputStream, times(1)).write(response200(false, false));
+    assertThat(written()).isEqualTo(response200(false, false));
     verify(mockChain, times(0)).doFilter(mockRequest, mockResponse);
     verify(mockProjectCache, times(3)).get(any(Project.NameKey.class));
     verify(mockResponse, times(1)).setStatus(200);
@@ -183,12 +279,12 @@ public class GoImportFilterTest {
   @Test
   public void testDoFilterWithAnonymousAccessibleProject() throws Exception {
     when(mockRequest.getServletPath()).thenReturn("/projectName");
-    when(mockRequest.getParameter("go-get")).thenReturn("1");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
     when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
         .thenReturn(Optional.of(mockProjectState));
     when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(true);
     unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
-    verify(mockOutputStream, times(1)).write(response200(true, false));
+    assertThat(written()).isEqualTo(response200(true, false));
     verify(mockChain, times(0)).doFilter(mockRequest, mockResponse);
     verify(mockProjectCache, times(1)).get(any(Project.NameKey.class));
     verify(mockResponse, times(1)).setStatus(200);
@@ -198,7 +294,7 @@ public class GoImportFilterTest {
   @Test
   public void testDoFilterWithNonExistingProject() throws Exception {
     when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
-    when(mockRequest.getParameter("go-get")).thenReturn("1");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
     when(mockProjectCache.get(any(Project.NameKey.class))).thenReturn(Optional.empty());
     unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
     verify(mockOutputStream, times(1)).write(any(byte[].class));
@@ -207,11 +303,315 @@ public class GoImportFilterTest {
     verify(mockResponse, times(1)).setStatus(404);
   }
 
+  @Test
+  public void testDoFilterWithRepeatedNonExistingPackage() throws Exception {
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME + "/my/package");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockProjectCache.get(any(Project.NameKey.class))).thenReturn(Optional.empty());
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    verify(mockProjectCache, times(3)).get(any(Project.NameKey.class));
+    verify(mockResponse, times(2)).setStatus(404);
+  }
+
+  @Test
+  public void testDoFilterWithLoadedIndexAndPackage() throws Exception {
+    projectNameIndex.load(ImmutableList.of(Project.nameKey(PROJECT_NAME)));
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME + "/my/package");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(false);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    assertThat(written()).isEqualTo(response200(false, false));
+    verify(mockProjectCache, times(0)).get(any(Project.NameKey.class));
+    verify(mockResponse, times(1)).setStatus(200);
+  }
+
+  @Test
+  public void testDoFilterWithLoadedIndexAndNonExistingProject() throws Exception {
+    projectNameIndex.load(ImmutableList.of(Project.nameKey("other")));
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME + "/my/package");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    verify(mockProjectCache, times(0)).get(any(Project.NameKey.class));
+    verify(mockResponse, times(1)).setStatus(404);
+  }
+
+  @Test
+  public void testDoFilterWithProxyEnabled() throws Exception {
+    Config cfg = new Config();
+    cfg.setBoolean("plugin", "go-import", Configuration.PROXY, true);
+    unitUnderTest = new GoImportFilter(newResolver(PROD_URL, cfg), responseCache, metrics);
+    projectNameIndex.load(ImmutableList.of(Project.nameKey(PROJECT_NAME)));
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(false);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    String modContent =
+        PROD_FQDN + "/" + PROJECT_NAME + " mod " + auth(PROD_URL) + "/plugins/go-import/proxy";
+    assertThat(new String(written(), UTF_8))
+        .isEqualTo(
+            PAGE_200.replace(
+                CONTENT_PLH,
+                CONTENT + "\"/>\n  <meta name=\"go-import\" content=\"" + modContent));
+    verify(mockResponse, times(1)).setStatus(200);
+  }
+
+  @Test
+  public void testDoFilterWithVanityHost() throws Exception {
+    useVanityHost();
+    projectNameIndex.load(
+        ImmutableList.of(Project.nameKey(PROJECT_NAME), Project.nameKey("golang/tools")));
+    when(mockRequest.getHeader("Host")).thenReturn("Go.Corp.Example:443");
+    when(mockRequest.getServletPath()).thenReturn("/tools/my/package");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(true);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    assertThat(new String(written(), UTF_8))
+        .isEqualTo(
+            PAGE_200.replace(
+                CONTENT_PLH, "go.corp.example/tools git https://git.corp.example/golang/tools"));
+    verify(mockResponse, times(1)).setStatus(200);
+  }
+
+  @Test
+  public void testDoFilterWithVanityHostOutsideProjectRoot() throws Exception {
+    useVanityHost();
+    projectNameIndex.load(
+        ImmutableList.of(Project.nameKey(PROJECT_NAME), Project.nameKey("golang")));
+    when(mockRequest.getHeader("Host")).thenReturn("go.corp.example");
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    verify(mockResponse, times(1)).setStatus(404);
+  }
+
+  @Test
+  public void testDoFilterWithUnknownHost() throws Exception {
+    useVanityHost();
+    projectNameIndex.load(ImmutableList.of(Project.nameKey(PROJECT_NAME)));
+    when(mockRequest.getHeader("Host")).thenReturn("gerrit.corp.example");
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(true);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    assertThat(written()).isEqualTo(response200(true, false));
+  }
+
+  @Test
+  public void testDoFilterRateLimited() throws Exception {
+    unitUnderTest =
+        new GoImportFilter(
+            resolver, responseCache, metrics, new GoGetLimiter(1, 1, 0, Ticker.systemTicker()));
+    projectNameIndex.load(ImmutableList.of(Project.nameKey(PROJECT_NAME)));
+    when(mockRequest.getRemoteAddr()).thenReturn("192.0.2.1");
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(true);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    verify(mockResponse, times(1)).setStatus(200);
+    verify(mockResponse, times(1)).setStatus(429);
+    verify(mockResponse).setHeader(eq("Retry-After"), anyString());
+    verify(mockPermsForRef, times(1)).testOrFalse(RefPermission.READ);
+    verify(mockChain, times(0)).doFilter(mockRequest, mockResponse);
+  }
+
+  @Test
+  public void testDoFilterOverloaded() throws Exception {
+    GoGetLimiter limiter = new GoGetLimiter(0, 0, 1, Ticker.systemTicker());
+    unitUnderTest = new GoImportFilter(resolver, responseCache, metrics, limiter);
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    assertThat(limiter.tryAcquire()).isTrue();
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    verify(mockResponse, times(1)).setStatus(503);
+    verify(mockResponse).setHeader("Retry-After", "1");
+    verify(mockProjectCache, times(0)).get(any(Project.NameKey.class));
+  }
+
+  @Test
+  public void testDoFilterTracesSlowRequest() throws Exception {
+    unitUnderTest =
+        new GoImportFilter(
+            resolver,
+            responseCache,
+            metrics,
+            new GoGetLimiter(0, 0, 0, Ticker.systemTicker()),
+            new TopImportPaths(),
+            new GoGetTracer(1));
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME + "/my/package");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockProjectCache.get(any(Project.NameKey.class))).thenReturn(Optional.empty());
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
+        .thenReturn(Optional.of(mockProjectState));
+    when(mockPermsForRef.testOrFalse(RefPermission.READ))
+        .thenAnswer(
+            inv -> {
+              Thread.sleep(5);
+              return true;
+            });
+    doAnswer(
+            inv -> {
+              Thread.sleep(2);
+              return null;
+            })
+        .when(mockOutputStream)
+        .write(any(byte[].class));
+
+    List<String> messages;
+    try (GoGetTracerTest.LogCapture log = new GoGetTracerTest.LogCapture()) {
+      log.install();
+      unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+      messages = log.messages;
+    }
+    verify(mockResponse, times(1)).setStatus(200);
+    assertThat(messages).hasSize(1);
+    Matcher m =
+        Pattern.compile(
+                "Slow go-get request /"
+                    + PROJECT_NAME
+                    + "/my/package: [0-9.]+ ms, status 200, project "
+                    + PROJECT_NAME
+                    + ", 3 project cache probes; lookup ([0-9.]+) ms,"
+                    + " permission check ([0-9.]+) ms, render ([0-9.]+) ms,"
+                    + " coalesced wait 0\\.000 ms, write ([0-9.]+) ms")
+            .matcher(messages.get(0));
+    assertThat(m.matches()).isTrue();
+    assertThat(Double.parseDouble(m.group(2))).isAtLeast(5.0);
+    assertThat(Double.parseDouble(m.group(4))).isAtLeast(2.0 * 3);
+  }
+
+  @Test
+  public void testDoFilterCoalescesConcurrentRequests() throws Exception {
+    CountDownLatch resolving = new CountDownLatch(1);
+    CountDownLatch coalesced = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    GoImportMetrics countingMetrics =
+        new GoImportMetrics(new DisabledMetricMaker()) {
+          @Override
+          void recordCoalescedRequest() {
+            coalesced.countDown();
+          }
+        };
+    unitUnderTest = new GoImportFilter(resolver, responseCache, countingMetrics);
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
+        .thenAnswer(
+            inv -> {
+              resolving.countDown();
+              release.await();
+              return Optional.of(mockProjectState);
+            });
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(false);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Callable<Void> request =
+          () -> {
+            unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+            return null;
+          };
+      Future<Void> first = executor.submit(request);
+      assertThat(resolving.await(10, TimeUnit.SECONDS)).isTrue();
+      Future<Void> second = executor.submit(request);
+      assertThat(coalesced.await(10, TimeUnit.SECONDS)).isTrue();
+      release.countDown();
+      first.get(10, TimeUnit.SECONDS);
+      second.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(mockProjectCache, times(1)).get(any(Project.NameKey.class));
+    verify(mockResponse, times(2)).setStatus(200);
+  }
+
+  @Test
+  public void testDoFilterWithCachedResponse() throws Exception {
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
+        .thenReturn(Optional.of(mockProjectState));
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(true);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    byte[] response = response200(true, false);
+    assertThat(written()).isEqualTo(Bytes.concat(response, response, response));
+    verify(mockPermsForRef, times(1)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testDoFilterWithCachedResponseSkipsLookup() throws Exception {
+    AtomicInteger matches = new AtomicInteger();
+    projectNameIndex =
+        new ProjectNameIndex() {
+          @Override
+          String longestMatch(String path) {
+            matches.incrementAndGet();
+            return super.longestMatch(path);
+          }
+        };
+    resolver = newResolver(PROD_URL);
+    AtomicInteger lookups = new AtomicInteger();
+    responseCache =
+        new ResponseCache(CacheBuilder.newBuilder().build()) {
+          @Override
+          byte[] get(Key key, Callable<byte[]> renderer) throws ExecutionException {
+            lookups.incrementAndGet();
+            return super.get(key, renderer);
+          }
+        };
+    unitUnderTest = new GoImportFilter(resolver, responseCache, metrics);
+    projectNameIndex.load(ImmutableList.of(Project.nameKey(PROJECT_NAME)));
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME + "/my/package");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(true);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    byte[] response = response200(true, false);
+    assertThat(written()).isEqualTo(Bytes.concat(response, response, response));
+    assertThat(lookups.get()).isEqualTo(1);
+    assertThat(matches.get()).isEqualTo(3);
+    verify(mockPermsForRef, times(1)).testOrFalse(RefPermission.READ);
+  }
+
+  @Test
+  public void testDoFilterWritesSharedBuffers() throws Exception {
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
+        .thenReturn(Optional.of(mockProjectState));
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+    verify(mockOutputStream, times(6)).write(captor.capture());
+    List<byte[]> writes = captor.getAllValues();
+    for (int i = 0; i < 3; i++) {
+      assertThat(writes.get(i + 3)).isSameInstanceAs(writes.get(i));
+    }
+    verify(mockResponse, times(2)).setContentLength(response200(false, false).length);
+  }
+
+  @Test
+  public void testDoFilterWithHeadRequest() throws Exception {
+    when(mockRequest.getMethod()).thenReturn("HEAD");
+    when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
+    when(mockProjectCache.get(Project.nameKey(PROJECT_NAME)))
+        .thenReturn(Optional.of(mockProjectState));
+    unitUnderTest.doFilter(mockRequest, mockResponse, mockChain);
+    verify(mockResponse, times(1)).setStatus(200);
+    verify(mockResponse, times(1)).setContentLength(response200(false, false).length);
+    verify(mockResponse, times(0)).getOutputStream();
+  }
+
   @Test
   public void testDoFilterWithIOException() throws Exception {
     String msg = "test-io-error";
     when(mockRequest.getServletPath()).thenReturn("/" + PROJECT_NAME);
-    when(mockRequest.getParameter("go-get")).thenReturn("1");
+    when(mockRequest.getQueryString()).thenReturn("go-get=1");
     doThrow(new IOException(msg)).when(mockOutputStream).write(any(byte[].class));
     when(mockProjectCache.get(any(Project.NameKey.class)))
         .thenReturn(Optional.of(mockProjectState));
@@ -16,14 +16,19 @@ package com.ericsson.gerrit.plugins.goimport;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.metrics.DisabledMetricMaker;
 import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.CanonicalWebUrl;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Provides;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -33,10 +38,13 @@ import org.mockito.junit.MockitoJUnitRunner;
 @RunWith(MockitoJUnitRunner.class)
 public class HttpModuleTest {
 
+  private final GoImportMetrics metrics = new GoImportMetrics(new DisabledMetricMaker());
   private HttpModule unitUnderTest;
   @Mock private AnonymousUser mockAnon;
   @Mock private PermissionBackend mockPerms;
   @Mock private ProjectCache mockProjectCache;
+  @Mock private GitRepositoryManager mockRepoManager;
+  @Mock private ModuleZipCache mockZipCache;
 
   @Before
   public void setUp() throws Exception {
@@ -52,6 +60,11 @@ public class HttpModuleTest {
     assertThat(filter1).isNotNull();
     GoImportFilter filter2 = injector.getInstance(GoImportFilter.class);
     assertThat(filter1).isSameInstanceAs(filter2);
+
+    ModuleProxyServlet proxy1 = injector.getInstance(ModuleProxyServlet.class);
+    assertThat(proxy1).isNotNull();
+    ModuleProxyServlet proxy2 = injector.getInstance(ModuleProxyServlet.class);
+    assertThat(proxy1).isSameInstanceAs(proxy2);
   }
 
   public class TestModule extends AbstractModule {
@@ -60,6 +73,21 @@ public class HttpModuleTest {
       bind(AnonymousUser.class).toInstance(mockAnon);
       bind(PermissionBackend.class).toInstance(mockPerms);
       bind(ProjectCache.class).toInstance(mockProjectCache);
+      bind(GitRepositoryManager.class).toInstance(mockRepoManager);
+      bind(ModuleZipCache.class).toInstance(mockZipCache);
+      bind(Configuration.class).toInstance(new Configuration(new Config(), "go-import"));
+      bind(GoImportMetrics.class).toInstance(metrics);
+      bind(ResponseCache.class).toInstance(new ResponseCache(CacheBuilder.newBuilder().build()));
+      bind(MissingProjectCache.class)
+          .toInstance(new MissingProjectCache(CacheBuilder.newBuilder().build()));
+      bind(AnonymousAccessCache.class)
+          .toInstance(
+              new AnonymousAccessCache(
+                  CacheBuilder.newBuilder().build(),
+                  new AnonymousAccessCache.Loader(() -> mockAnon, mockPerms, metrics),
+                  metrics,
+                  mockProjectCache,
+                  new AllProjectsName("All-Projects")));
     }
 
     @Provides
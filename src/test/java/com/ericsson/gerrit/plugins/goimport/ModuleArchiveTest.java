@@ -0,0 +1,128 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleArchiveTest {
+  private static final String MODULE = "example.com/bob/platform";
+
+  private InMemoryRepository repo;
+  private TestRepository<InMemoryRepository> testRepo;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("bob/platform"));
+    testRepo = new TestRepository<>(repo);
+  }
+
+  @Test
+  public void testWriteZipAddsRootLicenseToNestedModule() throws Exception {
+    RevCommit commit =
+        testRepo
+            .commit()
+            .add("LICENSE", "root license\n")
+            .add("go.mod", "module " + MODULE + "\n")
+            .add("tools/go.mod", "module " + MODULE + "/tools\n")
+            .add("tools/main.go", "package main\n")
+            .create();
+
+    Map<String, String> zip = writeZip(commit, "tools", MODULE + "/tools");
+    assertThat(zip)
+        .containsExactly(
+            MODULE + "/tools@v1.0.0/go.mod", "module " + MODULE + "/tools\n",
+            MODULE + "/tools@v1.0.0/main.go", "package main\n",
+            MODULE + "/tools@v1.0.0/LICENSE", "root license\n");
+  }
+
+  @Test
+  public void testWriteZipKeepsLicenseOfNestedModule() throws Exception {
+    RevCommit commit =
+        testRepo
+            .commit()
+            .add("LICENSE", "root license\n")
+            .add("tools/go.mod", "module " + MODULE + "/tools\n")
+            .add("tools/LICENSE", "tools license\n")
+            .create();
+
+    Map<String, String> zip = writeZip(commit, "tools", MODULE + "/tools");
+    assertThat(zip).containsEntry(MODULE + "/tools@v1.0.0/LICENSE", "tools license\n");
+    assertThat(zip).hasSize(2);
+  }
+
+  @Test
+  public void testWriteZipOfRootModuleWithoutLicense() throws Exception {
+    RevCommit commit = testRepo.commit().add("go.mod", "module " + MODULE + "\n").create();
+
+    assertThat(writeZip(commit, "", MODULE).keySet()).containsExactly(MODULE + "@v1.0.0/go.mod");
+  }
+
+  @Test
+  public void testIsVendoredPackage() throws Exception {
+    assertThat(ModuleArchive.isVendoredPackage("vendor/modules.txt")).isFalse();
+    assertThat(ModuleArchive.isVendoredPackage("vendor/x/x.go")).isTrue();
+    assertThat(ModuleArchive.isVendoredPackage("a/vendor/x/x.go")).isTrue();
+    assertThat(ModuleArchive.isVendoredPackage("a/vendorx/x.go")).isFalse();
+    assertThat(ModuleArchive.isVendoredPackage("main.go")).isFalse();
+  }
+
+  @Test
+  public void testWriteZipExcludesNestedVendorFiles() throws Exception {
+    // The go command excludes a/vendor/x.go as well, see ModuleArchive.isVendoredPackage.
+    RevCommit commit =
+        testRepo
+            .commit()
+            .add("go.mod", "module " + MODULE + "\n")
+            .add("vendor/modules.txt", "# x\n")
+            .add("vendor/x/x.go", "package x\n")
+            .add("a/vendor/x.go", "package vendor\n")
+            .add("a/a.go", "package a\n")
+            .create();
+
+    assertThat(writeZip(commit, "", MODULE).keySet())
+        .containsExactly(
+            MODULE + "@v1.0.0/go.mod",
+            MODULE + "@v1.0.0/vendor/modules.txt",
+            MODULE + "@v1.0.0/a/a.go");
+  }
+
+  private Map<String, String> writeZip(RevCommit commit, String subdir, String modulePath)
+      throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ModuleArchive.writeZip(repo, commit, subdir, modulePath, "v1.0.0", out);
+    Map<String, String> entries = new LinkedHashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      for (ZipEntry e = zip.getNextEntry(); e != null; e = zip.getNextEntry()) {
+        entries.put(e.getName(), new String(ByteStreams.toByteArray(zip), UTF_8));
+      }
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleIndexTest {
+  private ModuleIndex unitUnderTest;
+
+  @Before
+  public void setUp() throws Exception {
+    unitUnderTest = new ModuleIndex();
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    unitUnderTest.update("bob/platform", ImmutableList.of("tools", "api/v2"));
+    ModuleIndex.Module module = unitUnderTest.get("bob/platform/api/v2");
+    assertThat(module.project).isEqualTo("bob/platform");
+    assertThat(module.subdir).isEqualTo("api/v2");
+    assertThat(unitUnderTest.get("bob/platform/api")).isNull();
+    assertThat(unitUnderTest.get("bob/platform")).isNull();
+    assertThat(unitUnderTest.size()).isEqualTo(2);
+
+    unitUnderTest.update("bob/platform", ImmutableList.of("tools"));
+    assertThat(unitUnderTest.get("bob/platform/api/v2")).isNull();
+    assertThat(unitUnderTest.get("bob/platform/tools")).isNotNull();
+    assertThat(unitUnderTest.subdirs("bob/platform")).containsExactly("tools");
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    unitUnderTest.update("bob/platform", ImmutableList.of("tools"));
+    unitUnderTest.remove("bob/platform");
+    assertThat(unitUnderTest.get("bob/platform/tools")).isNull();
+    assertThat(unitUnderTest.subdirs("bob/platform")).isEmpty();
+    assertThat(unitUnderTest.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testMostSpecificProjectWins() throws Exception {
+    unitUnderTest.update("bob/platform", ImmutableList.of("tools"));
+    unitUnderTest.update("bob", ImmutableList.of("platform/tools"));
+    assertThat(unitUnderTest.get("bob/platform/tools").project).isEqualTo("bob/platform");
+
+    unitUnderTest.remove("bob");
+    assertThat(unitUnderTest.get("bob/platform/tools").project).isEqualTo("bob/platform");
+  }
+
+  @Test
+  public void testShadowedModuleIsRestored() throws Exception {
+    unitUnderTest.update("bob", ImmutableList.of("platform/tools"));
+    unitUnderTest.update("bob/platform", ImmutableList.of("tools"));
+    assertThat(unitUnderTest.get("bob/platform/tools").project).isEqualTo("bob/platform");
+
+    unitUnderTest.update("bob/platform", ImmutableList.of());
+    ModuleIndex.Module module = unitUnderTest.get("bob/platform/tools");
+    assertThat(module.project).isEqualTo("bob");
+    assertThat(module.subdir).isEqualTo("platform/tools");
+
+    unitUnderTest.update("bob/platform", ImmutableList.of("tools"));
+    unitUnderTest.remove("bob/platform");
+    assertThat(unitUnderTest.get("bob/platform/tools").project).isEqualTo("bob");
+    assertThat(unitUnderTest.size()).isEqualTo(1);
+  }
+}
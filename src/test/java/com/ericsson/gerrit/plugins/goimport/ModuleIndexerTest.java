@@ -0,0 +1,118 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import java.util.concurrent.ScheduledExecutorService;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ModuleIndexerTest {
+  private static final String PROJECT_NAME = "bob/platform";
+
+  private ModuleIndex index;
+  private ModuleIndexer unitUnderTest;
+  private InMemoryRepository repo;
+  private TestRepository<InMemoryRepository> testRepo;
+
+  @Mock private ProjectCache mockProjectCache;
+  @Mock private GitRepositoryManager mockRepoManager;
+  @Mock private WorkQueue mockWorkQueue;
+  @Mock private ScheduledExecutorService mockExecutor;
+  @Mock private GitReferenceUpdatedListener.Event mockEvent;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription(PROJECT_NAME));
+    testRepo = new TestRepository<>(repo);
+    index = new ModuleIndex();
+    Config cfg = new Config();
+    cfg.setBoolean("plugin", "go-import", Configuration.PROXY, true);
+    unitUnderTest =
+        new ModuleIndexer(
+            index,
+            mockProjectCache,
+            mockRepoManager,
+            mockWorkQueue,
+            new Configuration(cfg, "go-import"));
+    when(mockRepoManager.openRepository(Project.nameKey(PROJECT_NAME))).thenReturn(repo);
+  }
+
+  @Test
+  public void testIndex() throws Exception {
+    RevCommit commit =
+        testRepo
+            .commit()
+            .add("go.mod", "module example.com/bob/platform\n")
+            .add("tools/go.mod", "module example.com/bob/platform/tools\n")
+            .add("api/v2/go.mod", "module example.com/bob/platform/api/v2\n")
+            .add("tools/vendor/x/go.mod", "module x\n")
+            .add("tools/testdata/go.mod", "module y\n")
+            .add("_examples/go.mod", "module z\n")
+            .create();
+    testRepo.update("refs/heads/master", commit);
+    repo.updateRef("HEAD").link("refs/heads/master");
+
+    unitUnderTest.index(PROJECT_NAME);
+    assertThat(index.subdirs(PROJECT_NAME)).containsExactly("tools", "api/v2");
+  }
+
+  @Test
+  public void testIndexWithUnbornHead() throws Exception {
+    index.update(PROJECT_NAME, ImmutableList.of("tools"));
+    repo.updateRef("HEAD").link("refs/heads/master");
+    unitUnderTest.index(PROJECT_NAME);
+    assertThat(index.subdirs(PROJECT_NAME)).isEmpty();
+  }
+
+  @Test
+  public void testReindexOnDefaultBranchUpdate() throws Exception {
+    when(mockWorkQueue.createQueue(1, ModuleIndexer.QUEUE_NAME)).thenReturn(mockExecutor);
+    when(mockProjectCache.all()).thenReturn(ImmutableList.of());
+    repo.updateRef("HEAD").link("refs/heads/main");
+    unitUnderTest.start();
+    unitUnderTest.index(PROJECT_NAME);
+
+    when(mockEvent.getProjectName()).thenReturn(PROJECT_NAME);
+    when(mockEvent.getRefName()).thenReturn("refs/heads/stable");
+    unitUnderTest.onGitReferenceUpdated(mockEvent);
+    verify(mockExecutor, never()).execute(any(Runnable.class));
+
+    when(mockEvent.getRefName()).thenReturn("refs/heads/main");
+    unitUnderTest.onGitReferenceUpdated(mockEvent);
+    unitUnderTest.onGitReferenceUpdated(mockEvent);
+    verify(mockExecutor).execute(any(Runnable.class));
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+public class ModuleProxyServletTest {
+
+  @Test
+  public void testParseVersionRequest() throws Exception {
+    ModuleProxyServlet.ModuleRequest request =
+        ModuleProxyServlet.parse("/gerrit.example.com/bob/my-project/@v/v1.0.0.zip");
+    assertThat(request.modulePath).isEqualTo("gerrit.example.com/bob/my-project");
+    assertThat(request.operation).isEqualTo("v1.0.0.zip");
+
+    request = ModuleProxyServlet.parse("/gerrit.example.com/bob/@v/list");
+    assertThat(request.modulePath).isEqualTo("gerrit.example.com/bob");
+    assertThat(request.operation).isEqualTo("list");
+  }
+
+  @Test
+  public void testParseLatestRequest() throws Exception {
+    ModuleProxyServlet.ModuleRequest request =
+        ModuleProxyServlet.parse("/gerrit.example.com/bob/@latest");
+    assertThat(request.modulePath).isEqualTo("gerrit.example.com/bob");
+    assertThat(request.operation).isEqualTo("/@latest");
+  }
+
+  @Test
+  public void testParseInvalidRequest() throws Exception {
+    assertThat(ModuleProxyServlet.parse(null)).isNull();
+    assertThat(ModuleProxyServlet.parse("/")).isNull();
+    assertThat(ModuleProxyServlet.parse("/@latest")).isNull();
+    assertThat(ModuleProxyServlet.parse("/gerrit.example.com/bob")).isNull();
+    assertThat(ModuleProxyServlet.parse("/gerrit.example.com/bob/@v/")).isNull();
+    assertThat(ModuleProxyServlet.parse("/gerrit.example.com/bob/@v/x/list")).isNull();
+  }
+
+  @Test
+  public void testUnescape() throws Exception {
+    assertThat(ModuleProxyServlet.unescape("bob/my-project")).isEqualTo("bob/my-project");
+    assertThat(ModuleProxyServlet.unescape("!bob/!my!project")).isEqualTo("Bob/MyProject");
+    assertThat(ModuleProxyServlet.unescape("bob!")).isNull();
+    assertThat(ModuleProxyServlet.unescape("bob!B")).isNull();
+  }
+
+  @Test
+  public void testResolveModule() throws Exception {
+    ModuleIndex moduleIndex = new ModuleIndex();
+    moduleIndex.update("bob", ImmutableList.of("tools", "api/v3"));
+    ModuleProxyServlet unitUnderTest =
+        new ModuleProxyServlet(null, moduleIndex, null, null, null, null);
+
+    assertModule(unitUnderTest.resolve("bob", "bob"), "", "", 0);
+    assertModule(unitUnderTest.resolve("bob", "bob/v2"), "", "", 2);
+    assertModule(unitUnderTest.resolve("bob", "bob/tools"), "tools", "tools/", 0);
+    assertModule(unitUnderTest.resolve("bob", "bob/tools/v2"), "tools", "tools/", 2);
+    assertModule(unitUnderTest.resolve("bob", "bob/api/v3"), "api/v3", "api/", 3);
+    assertThat(unitUnderTest.resolve("bob", "bob/api/v3/v4")).isNull();
+    assertThat(unitUnderTest.resolve("bob", "bob/tools/pkg")).isNull();
+    assertThat(unitUnderTest.resolve("bob", "bob/v1")).isNull();
+    assertThat(unitUnderTest.resolve("bob/tools", "bob/tools")).isNotNull();
+    assertThat(unitUnderTest.resolve("alice", "bob/tools")).isNull();
+  }
+
+  private static void assertModule(
+      ModuleProxyServlet.Module module, String subdir, String tagPrefix, int pathMajor) {
+    assertThat(module.subdir).isEqualTo(subdir);
+    assertThat(module.tagPrefix).isEqualTo(tagPrefix);
+    assertThat(module.pathMajor).isEqualTo(pathMajor);
+  }
+}
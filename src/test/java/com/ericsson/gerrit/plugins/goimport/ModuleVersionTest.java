@@ -0,0 +1,88 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ModuleVersionTest {
+
+  @Test
+  public void testParse() throws Exception {
+    ModuleVersion version = ModuleVersion.parse("v1.2.3-rc.1");
+    assertThat(version.major).isEqualTo(1);
+    assertThat(version.minor).isEqualTo(2);
+    assertThat(version.patch).isEqualTo(3);
+    assertThat(version.prerelease).isEqualTo("rc.1");
+    assertThat(version.isPrerelease()).isTrue();
+    assertThat(ModuleVersion.parse("v0.1.0").isPrerelease()).isFalse();
+    assertThat(ModuleVersion.parse("v1.0.0-0").prerelease).isEqualTo("0");
+    assertThat(ModuleVersion.parse("v1.0.0-0a.1-x").prerelease).isEqualTo("0a.1-x");
+  }
+
+  @Test
+  public void testParseInvalid() throws Exception {
+    assertThat(ModuleVersion.parse("1.2.3")).isNull();
+    assertThat(ModuleVersion.parse("v1.2")).isNull();
+    assertThat(ModuleVersion.parse("v01.2.3")).isNull();
+    assertThat(ModuleVersion.parse("v1.2.3+build")).isNull();
+    assertThat(ModuleVersion.parse("v1.2.3-")).isNull();
+    assertThat(ModuleVersion.parse("v99999999999.0.0")).isNull();
+    assertThat(ModuleVersion.parse("v1.0.0-01")).isNull();
+    assertThat(ModuleVersion.parse("v1.0.0-rc.01")).isNull();
+  }
+
+  @Test
+  public void testCompareTo() throws Exception {
+    List<String> ordered =
+        ImmutableList.of(
+            "v0.9.0",
+            "v1.0.0-alpha",
+            "v1.0.0-alpha.1",
+            "v1.0.0-alpha.beta",
+            "v1.0.0-beta.2",
+            "v1.0.0-beta.11",
+            "v1.0.0-rc.1",
+            "v1.0.0",
+            "v1.0.1",
+            "v1.10.0",
+            "v2.0.0");
+    List<ModuleVersion> versions = new ArrayList<>();
+    for (String v : ordered) {
+      versions.add(ModuleVersion.parse(v));
+    }
+    Collections.reverse(versions);
+    Collections.sort(versions);
+    List<String> sorted = new ArrayList<>();
+    for (ModuleVersion v : versions) {
+      sorted.add(v.toString());
+    }
+    assertThat(sorted).containsExactlyElementsIn(ordered).inOrder();
+  }
+
+  @Test
+  public void testMatchesPathMajor() throws Exception {
+    assertThat(ModuleVersion.parse("v0.1.0").matchesPathMajor(0)).isTrue();
+    assertThat(ModuleVersion.parse("v1.1.0").matchesPathMajor(0)).isTrue();
+    assertThat(ModuleVersion.parse("v2.0.0").matchesPathMajor(0)).isFalse();
+    assertThat(ModuleVersion.parse("v2.0.0").matchesPathMajor(2)).isTrue();
+    assertThat(ModuleVersion.parse("v3.0.0").matchesPathMajor(2)).isFalse();
+  }
+}
@@ -0,0 +1,211 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ModuleZipCacheTest {
+  private static final ObjectId COMMIT =
+      ObjectId.fromString("0123456789012345678901234567890123456789");
+  private static final byte[] CONTENT = "zip content".getBytes(UTF_8);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final AtomicInteger writes = new AtomicInteger();
+  private final ModuleZipCache.ZipWriter writer =
+      out -> {
+        writes.incrementAndGet();
+        out.write(CONTENT);
+      };
+  private ModuleZipCache unitUnderTest;
+  private Path dataDir;
+
+  @Mock private HttpServletResponse mockResponse;
+
+  @Before
+  public void setUp() throws Exception {
+    dataDir = tmp.newFolder().toPath();
+    unitUnderTest = newCache(1024);
+    unitUnderTest.start();
+  }
+
+  private ModuleZipCache newCache(long size) {
+    Config cfg = new Config();
+    cfg.setLong("plugin", "go-import", Configuration.ZIP_CACHE_SIZE, size);
+    return new ModuleZipCache(dataDir, new Configuration(cfg, "go-import"));
+  }
+
+  private static ModuleZipCache.Key key(String version) {
+    return new ModuleZipCache.Key(COMMIT, "", "gerrit.example.com/bob", version);
+  }
+
+  @Test
+  public void testGetWritesOnce() throws Exception {
+    Path zip1 = unitUnderTest.get(key("v1.0.0"), writer);
+    Path zip2 = unitUnderTest.get(key("v1.0.0"), writer);
+    assertThat(zip1).isEqualTo(zip2);
+    assertThat(Files.readAllBytes(zip1)).isEqualTo(CONTENT);
+    assertThat(writes.get()).isEqualTo(1);
+    assertThat(unitUnderTest.size()).isEqualTo(CONTENT.length);
+    try (Stream<Path> files = Files.list(zip1.getParent())) {
+      assertThat(files.count()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testConcurrentGetsWriteOnce() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ModuleZipCache.ZipWriter slowWriter =
+        out -> {
+          writing.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          writer.writeTo(out);
+        };
+    AtomicReference<Path> first = new AtomicReference<>();
+    AtomicReference<Path> second = new AtomicReference<>();
+    Thread t1 = new Thread(() -> getQuietly(slowWriter, first));
+    Thread t2 = new Thread(() -> getQuietly(slowWriter, second));
+    t1.start();
+    assertThat(writing.await(10, TimeUnit.SECONDS)).isTrue();
+    t2.start();
+    // The second request waits for the zip written by the first one.
+    for (int i = 0; i < 1000 && t2.getState() != Thread.State.WAITING; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(t2.getState()).isEqualTo(Thread.State.WAITING);
+    release.countDown();
+    t1.join(10000);
+    t2.join(10000);
+    assertThat(first.get()).isNotNull();
+    assertThat(second.get()).isEqualTo(first.get());
+    assertThat(writes.get()).isEqualTo(1);
+  }
+
+  private void getQuietly(ModuleZipCache.ZipWriter zipWriter, AtomicReference<Path> result) {
+    try {
+      result.set(unitUnderTest.get(key("v1.0.0"), zipWriter));
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Test
+  public void testKeyIncludesModulePathAndVersion() throws Exception {
+    Path zip1 = unitUnderTest.get(key("v1.0.0"), writer);
+    Path zip2 = unitUnderTest.get(key("v1.0.1"), writer);
+    assertThat(zip1).isNotEqualTo(zip2);
+    assertThat(writes.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyServed() throws Exception {
+    unitUnderTest = newCache(2 * CONTENT.length);
+    Path zip1 = unitUnderTest.get(key("v1.0.0"), writer);
+    Path zip2 = unitUnderTest.get(key("v1.0.1"), writer);
+    unitUnderTest.get(key("v1.0.0"), writer);
+    Path zip3 = unitUnderTest.get(key("v1.0.2"), writer);
+    assertThat(Files.exists(zip1)).isTrue();
+    assertThat(Files.exists(zip2)).isFalse();
+    assertThat(Files.exists(zip3)).isTrue();
+    assertThat(unitUnderTest.size()).isEqualTo(2 * CONTENT.length);
+  }
+
+  @Test
+  public void testStartLoadsExistingFiles() throws Exception {
+    Path zip = unitUnderTest.get(key("v1.0.0"), writer);
+    Path unfinished = zip.resolveSibling("unfinished.tmp");
+    Files.write(unfinished, CONTENT);
+
+    unitUnderTest = newCache(1024);
+    unitUnderTest.start();
+    assertThat(unitUnderTest.size()).isEqualTo(CONTENT.length);
+    assertThat(Files.exists(unfinished)).isFalse();
+    unitUnderTest.get(key("v1.0.0"), writer);
+    assertThat(writes.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSend() throws Exception {
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    when(mockResponse.getOutputStream()).thenReturn(new TestOutputStream(written));
+    unitUnderTest.send(key("v1.0.0"), writer, mockResponse);
+    assertThat(written.toByteArray()).isEqualTo(CONTENT);
+    verify(mockResponse).setContentLengthLong(CONTENT.length);
+  }
+
+  @Test
+  public void testSendWithDisabledCache() throws Exception {
+    unitUnderTest = newCache(0);
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    when(mockResponse.getOutputStream()).thenReturn(new TestOutputStream(written));
+    unitUnderTest.send(key("v1.0.0"), writer, mockResponse);
+    assertThat(written.toByteArray()).isEqualTo(CONTENT);
+    try (Stream<Path> files = Files.list(dataDir.resolve(ModuleZipCache.DIRECTORY))) {
+      assertThat(files.count()).isEqualTo(0);
+    }
+  }
+
+  private static class TestOutputStream extends ServletOutputStream {
+    private final ByteArrayOutputStream out;
+
+    TestOutputStream(ByteArrayOutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {}
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Project;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProjectNameIndexTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectNameIndex unitUnderTest;
+
+  @Before
+  public void setUp() throws Exception {
+    unitUnderTest = new ProjectNameIndex();
+    unitUnderTest.load(
+        ImmutableList.of(
+            Project.nameKey("bob"),
+            Project.nameKey("bob/my-project"),
+            Project.nameKey("bob/my-project/some-other-project"),
+            Project.nameKey("tom/my-project")));
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    assertThat(unitUnderTest.isLoaded()).isTrue();
+    assertThat(unitUnderTest.size()).isEqualTo(4);
+  }
+
+  @Test
+  public void testLongestMatch() throws Exception {
+    assertThat(unitUnderTest.longestMatch("bob")).isEqualTo("bob");
+    assertThat(unitUnderTest.longestMatch("bob/package1")).isEqualTo("bob");
+    assertThat(unitUnderTest.longestMatch("bob/my-project")).isEqualTo("bob/my-project");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/package1")).isEqualTo("bob/my-project");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/package1/folder2"))
+        .isEqualTo("bob/my-project");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/some-other-project/x"))
+        .isEqualTo("bob/my-project/some-other-project");
+    assertThat(unitUnderTest.longestMatch("bob/")).isEqualTo("bob");
+  }
+
+  @Test
+  public void testLongestMatchWithoutMatch() throws Exception {
+    assertThat(unitUnderTest.longestMatch("tom")).isNull();
+    assertThat(unitUnderTest.longestMatch("bo")).isNull();
+    assertThat(unitUnderTest.longestMatch("bobby/my-project")).isNull();
+    assertThat(unitUnderTest.longestMatch("x/y/z")).isNull();
+    assertThat(unitUnderTest.longestMatch("")).isNull();
+  }
+
+  @Test
+  public void testAdd() throws Exception {
+    unitUnderTest.add("tom");
+    assertThat(unitUnderTest.longestMatch("tom/package1")).isEqualTo("tom");
+    assertThat(unitUnderTest.longestMatch("tom/my-project/package1")).isEqualTo("tom/my-project");
+    assertThat(unitUnderTest.size()).isEqualTo(5);
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    unitUnderTest.remove("bob/my-project");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/package1")).isEqualTo("bob");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/some-other-project"))
+        .isEqualTo("bob/my-project/some-other-project");
+    unitUnderTest.remove("tom/my-project");
+    assertThat(unitUnderTest.longestMatch("tom/my-project")).isNull();
+    unitUnderTest.remove("unknown");
+    assertThat(unitUnderTest.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    Path file = tmp.getRoot().toPath().resolve(ProjectNameSnapshot.FILE_NAME);
+    ProjectNameSnapshot.write(file, unitUnderTest.names());
+    unitUnderTest = new ProjectNameIndex();
+    assertThat(unitUnderTest.isLoaded()).isFalse();
+
+    ProjectNameSnapshot snapshot = ProjectNameSnapshot.open(file);
+    unitUnderTest.useSnapshot(snapshot);
+    assertThat(unitUnderTest.isLoaded()).isTrue();
+    assertThat(unitUnderTest.longestMatch("bob/my-project/package1")).isEqualTo("bob/my-project");
+
+    unitUnderTest.remove("bob/my-project");
+    unitUnderTest.add("bob/my-project/package1");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/x")).isEqualTo("bob");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/package1/x"))
+        .isEqualTo("bob/my-project/package1");
+
+    unitUnderTest.load(ImmutableList.of(Project.nameKey("tom")));
+    assertThat(unitUnderTest.longestMatch("bob/x")).isNull();
+    unitUnderTest.useSnapshot(snapshot);
+    assertThat(unitUnderTest.longestMatch("bob/x")).isNull();
+  }
+
+  @Test
+  public void testDropSnapshot() throws Exception {
+    Path file = tmp.getRoot().toPath().resolve(ProjectNameSnapshot.FILE_NAME);
+    ProjectNameSnapshot.write(file, unitUnderTest.names());
+    unitUnderTest = new ProjectNameIndex();
+    ProjectNameSnapshot snapshot = ProjectNameSnapshot.open(file);
+    unitUnderTest.useSnapshot(snapshot);
+    unitUnderTest.dropSnapshot(snapshot);
+    assertThat(unitUnderTest.isLoaded()).isFalse();
+    assertThat(unitUnderTest.longestMatch("bob")).isNull();
+  }
+
+  @Test
+  public void testReloadServesPreviousContent() throws Exception {
+    unitUnderTest.startLoading();
+    unitUnderTest.load(
+        () -> {
+          // Listing the projects of the new index; lookups use the current one meanwhile.
+          assertThat(unitUnderTest.longestMatch("bob/my-project/x")).isEqualTo("bob/my-project");
+          unitUnderTest.add("alice");
+          unitUnderTest.remove("tom/my-project");
+          return ImmutableList.of(Project.nameKey("bob"), Project.nameKey("tom/my-project"))
+              .iterator();
+        });
+    assertThat(unitUnderTest.longestMatch("bob/my-project/x")).isEqualTo("bob");
+    assertThat(unitUnderTest.longestMatch("alice/x")).isEqualTo("alice");
+    assertThat(unitUnderTest.longestMatch("tom/my-project")).isNull();
+    assertThat(unitUnderTest.size()).isEqualTo(2);
+
+    unitUnderTest.add("carol");
+    unitUnderTest.load(ImmutableList.of(Project.nameKey("bob")));
+    assertThat(unitUnderTest.longestMatch("carol")).isNull();
+  }
+
+  @Test
+  public void testCancelLoading() throws Exception {
+    unitUnderTest.startLoading();
+    unitUnderTest.add("alice");
+    unitUnderTest.cancelLoading();
+    unitUnderTest.load(ImmutableList.of(Project.nameKey("bob")));
+    assertThat(unitUnderTest.longestMatch("alice")).isNull();
+  }
+
+  @Test
+  public void testEstimateBytes() throws Exception {
+    long bytes = unitUnderTest.estimateBytes();
+    assertThat(bytes).isGreaterThan(0L);
+    unitUnderTest.add("alice/some-new-project");
+    assertThat(unitUnderTest.estimateBytes()).isGreaterThan(bytes);
+  }
+}
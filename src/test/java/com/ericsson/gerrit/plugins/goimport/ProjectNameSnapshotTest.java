@@ -0,0 +1,94 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProjectNameSnapshotTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path file;
+  private ProjectNameSnapshot unitUnderTest;
+
+  @Before
+  public void setUp() throws Exception {
+    file = tmp.getRoot().toPath().resolve(ProjectNameSnapshot.FILE_NAME);
+    ProjectNameSnapshot.write(
+        file,
+        ImmutableList.of(
+            "tom/my-project", "bob/my-project/some-other-project", "bob", "bob/my-project", "ü"));
+    unitUnderTest = ProjectNameSnapshot.open(file);
+  }
+
+  @Test
+  public void testOpen() throws Exception {
+    assertThat(unitUnderTest.size()).isEqualTo(5);
+    assertThat(unitUnderTest.verify()).isTrue();
+  }
+
+  @Test
+  public void testOpenWithoutFile() throws Exception {
+    assertThat(ProjectNameSnapshot.open(tmp.getRoot().toPath().resolve("missing"))).isNull();
+  }
+
+  @Test
+  public void testOpenWithInvalidHeader() throws Exception {
+    Files.write(file, new byte[] {1, 2, 3});
+    assertThat(ProjectNameSnapshot.open(file)).isNull();
+    Files.write(file, new byte[32]);
+    assertThat(ProjectNameSnapshot.open(file)).isNull();
+  }
+
+  @Test
+  public void testVerifyWithCorruptContent() throws Exception {
+    byte[] content = Files.readAllBytes(file);
+    content[content.length - 1] ^= 1;
+    Files.write(file, content);
+    ProjectNameSnapshot corrupt = ProjectNameSnapshot.open(file);
+    assertThat(corrupt).isNotNull();
+    assertThat(corrupt.verify()).isFalse();
+  }
+
+  @Test
+  public void testLongestMatch() throws Exception {
+    ImmutableSet<String> none = ImmutableSet.of();
+    assertThat(unitUnderTest.longestMatch("bob", none)).isEqualTo("bob");
+    assertThat(unitUnderTest.longestMatch("bob/package1", none)).isEqualTo("bob");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/package1", none))
+        .isEqualTo("bob/my-project");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/some-other-project/x", none))
+        .isEqualTo("bob/my-project/some-other-project");
+    assertThat(unitUnderTest.longestMatch("bob/", none)).isEqualTo("bob");
+    assertThat(unitUnderTest.longestMatch("ü/package1", none)).isEqualTo("ü");
+    assertThat(unitUnderTest.longestMatch("tom", none)).isNull();
+    assertThat(unitUnderTest.longestMatch("bobby/my-project", none)).isNull();
+    assertThat(unitUnderTest.longestMatch("", none)).isNull();
+  }
+
+  @Test
+  public void testLongestMatchWithRemovedProject() throws Exception {
+    ImmutableSet<String> removed = ImmutableSet.of("bob/my-project");
+    assertThat(unitUnderTest.longestMatch("bob/my-project/package1", removed)).isEqualTo("bob");
+  }
+}
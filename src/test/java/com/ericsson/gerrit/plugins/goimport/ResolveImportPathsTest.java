@@ -0,0 +1,222 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.gerrit.server.permissions.RefPermission;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.quota.QuotaException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResolveImportPathsTest {
+  private static final String PROD_FQDN = "gerrit-review.googlesource.com";
+  private static final String PROD_URL = "https://" + PROD_FQDN;
+  private static final String PROJECT_NAME = "bob/my-project";
+  private static final String VANITY_HOST = "go.corp.example";
+
+  @Mock private AnonymousUser mockAnon;
+  @Mock private PermissionBackend mockPerms;
+  @Mock private PermissionBackend.WithUser mockPermsWithUser;
+  @Mock private PermissionBackend.ForRef mockPermsForRef;
+  @Mock private PermissionBackend.WithUser mockPermsWithCurrentUser;
+  @Mock private PermissionBackend.ForProject mockPermsForProject;
+  @Mock private CurrentUser mockUser;
+  @Mock private ProjectCache mockProjectCache;
+
+  private GoImportResolver resolver;
+  private ResolveImportPaths unitUnderTest;
+
+  @Before
+  public void setUp() throws Exception {
+    GoImportMetrics metrics = new GoImportMetrics(new DisabledMetricMaker());
+    ProjectNameIndex projectNameIndex = new ProjectNameIndex();
+    projectNameIndex.load(ImmutableList.of(Project.nameKey(PROJECT_NAME)));
+    resolver =
+        new GoImportResolver(
+            mockProjectCache,
+            projectNameIndex,
+            new MissingProjectCache(CacheBuilder.newBuilder().build()),
+            new AnonymousAccessCache(
+                CacheBuilder.newBuilder().build(),
+                new AnonymousAccessCache.Loader(() -> mockAnon, mockPerms, metrics),
+                metrics,
+                mockProjectCache,
+                new AllProjectsName("All-Projects")),
+            metrics,
+            new Configuration(new Config(), pluginConfig(), "go-import"),
+            PROD_URL);
+    unitUnderTest =
+        new ResolveImportPaths(
+            resolver, mockPerms, () -> mockUser, new GoGetLimiter(0, 0, 0, Ticker.systemTicker()));
+  }
+
+  private static Config pluginConfig() {
+    Config cfg = new Config();
+    cfg.setString(
+        Configuration.HOST, VANITY_HOST, Configuration.IMPORT_PREFIX, VANITY_HOST + "/go");
+    cfg.setString(Configuration.HOST, VANITY_HOST, Configuration.PROJECT_ROOT, "bob");
+    return cfg;
+  }
+
+  private List<ResolveImportPaths.ImportPathInfo> apply(String... paths) throws Exception {
+    ResolveImportPaths.Input input = new ResolveImportPaths.Input();
+    input.paths = Arrays.asList(paths);
+    return unitUnderTest.apply(null, input).value();
+  }
+
+  private void allowAnonymousRead(boolean allow) {
+    allowAccess(true);
+    when(mockPerms.user(mockAnon)).thenReturn(mockPermsWithUser);
+    when(mockPermsWithUser.ref(any())).thenReturn(mockPermsForRef);
+    when(mockPermsForRef.testOrFalse(RefPermission.READ)).thenReturn(allow);
+  }
+
+  private void allowAccess(boolean allow) {
+    when(mockPerms.currentUser()).thenReturn(mockPermsWithCurrentUser);
+    when(mockPermsWithCurrentUser.project(Project.nameKey(PROJECT_NAME)))
+        .thenReturn(mockPermsForProject);
+    when(mockPermsForProject.testOrFalse(ProjectPermission.ACCESS)).thenReturn(allow);
+  }
+
+  @Test
+  public void testResolveWithAndWithoutHost() throws Exception {
+    allowAnonymousRead(true);
+    List<ResolveImportPaths.ImportPathInfo> result =
+        apply(PROD_FQDN + "/" + PROJECT_NAME + "/pkg", "/" + PROJECT_NAME, PROJECT_NAME + "/x/y");
+    assertThat(result).hasSize(3);
+    for (ResolveImportPaths.ImportPathInfo info : result) {
+      assertThat(info.project).isEqualTo(PROJECT_NAME);
+      assertThat(info.importPrefix).isEqualTo(PROD_FQDN + "/" + PROJECT_NAME);
+      assertThat(info.vcs).isEqualTo("git");
+      assertThat(info.repoRoot).isEqualTo(PROD_URL + "/" + PROJECT_NAME);
+      assertThat(info.anonymous).isTrue();
+    }
+    assertThat(result.get(0).path).isEqualTo(PROD_FQDN + "/" + PROJECT_NAME + "/pkg");
+  }
+
+  @Test
+  public void testResolveAuthenticated() throws Exception {
+    allowAnonymousRead(true);
+    ResolveImportPaths.ImportPathInfo info = apply(PROD_FQDN + "/a/" + PROJECT_NAME).get(0);
+    assertThat(info.project).isEqualTo(PROJECT_NAME);
+    assertThat(info.importPrefix).isEqualTo(PROD_FQDN + "/a/" + PROJECT_NAME);
+    assertThat(info.repoRoot).isEqualTo(PROD_URL + "/a/" + PROJECT_NAME);
+    assertThat(info.anonymous).isFalse();
+  }
+
+  @Test
+  public void testResolveVanityImportPath() throws Exception {
+    allowAnonymousRead(true);
+    ResolveImportPaths.ImportPathInfo info = apply(VANITY_HOST + "/go/my-project/pkg").get(0);
+    assertThat(info.project).isEqualTo(PROJECT_NAME);
+    assertThat(info.importPrefix).isEqualTo(VANITY_HOST + "/go/my-project");
+    assertThat(info.repoRoot).isEqualTo(PROD_URL + "/" + PROJECT_NAME);
+    assertThat(info.anonymous).isTrue();
+  }
+
+  @Test
+  public void testResolveWithoutAnonymousAccess() throws Exception {
+    allowAnonymousRead(false);
+    ResolveImportPaths.ImportPathInfo info = apply(PROJECT_NAME).get(0);
+    assertThat(info.repoRoot).isEqualTo(PROD_URL + "/a/" + PROJECT_NAME);
+    assertThat(info.anonymous).isFalse();
+  }
+
+  @Test
+  public void testResolveHiddenProject() throws Exception {
+    allowAccess(false);
+    ResolveImportPaths.ImportPathInfo info = apply(PROJECT_NAME + "/pkg").get(0);
+    assertThat(info.path).isEqualTo(PROJECT_NAME + "/pkg");
+    assertThat(info.project).isNull();
+    assertThat(info.repoRoot).isNull();
+  }
+
+  @Test
+  public void testResolveUnknownPath() throws Exception {
+    ResolveImportPaths.ImportPathInfo info = apply("x/y/z").get(0);
+    assertThat(info.path).isEqualTo("x/y/z");
+    assertThat(info.project).isNull();
+    assertThat(info.repoRoot).isNull();
+  }
+
+  @Test
+  public void testWithoutPaths() throws Exception {
+    assertThrows(
+        BadRequestException.class,
+        () -> unitUnderTest.apply(null, new ResolveImportPaths.Input()));
+  }
+
+  @Test
+  public void testWithTooManyPaths() throws Exception {
+    ResolveImportPaths.Input input = new ResolveImportPaths.Input();
+    input.paths =
+        new ArrayList<>(Collections.nCopies(ResolveImportPaths.MAX_PATHS + 1, PROJECT_NAME));
+    assertThrows(BadRequestException.class, () -> unitUnderTest.apply(null, input));
+  }
+
+  @Test
+  public void testRateLimit() throws Exception {
+    when(mockUser.getUserName()).thenReturn(Optional.of("bob"));
+    unitUnderTest =
+        new ResolveImportPaths(
+            resolver, mockPerms, () -> mockUser, new GoGetLimiter(60, 3, 0, new FakeTicker()));
+    assertThat(apply("x", "y")).hasSize(2);
+    assertThat(apply("z")).hasSize(1);
+    assertThrows(QuotaException.class, () -> apply("x"));
+  }
+
+  @Test
+  public void testRateLimitCountsBatchUpToBurst() throws Exception {
+    when(mockUser.getUserName()).thenReturn(Optional.of("bob"));
+    unitUnderTest =
+        new ResolveImportPaths(
+            resolver, mockPerms, () -> mockUser, new GoGetLimiter(60, 3, 0, new FakeTicker()));
+    assertThat(apply("a", "b", "c", "d", "e")).hasSize(5);
+    assertThrows(QuotaException.class, () -> apply("x"));
+  }
+
+  private static class FakeTicker extends Ticker {
+    @Override
+    public long read() {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResponseCacheTest {
+  private static final String PROJECT_NAME = "projectName";
+  private static final ResponseCache.Key KEY = new ResponseCache.Key(PROJECT_NAME, false, true);
+  private static final ResponseCache.Key OTHER_KEY = new ResponseCache.Key("other", false, true);
+
+  @Mock private GitReferenceUpdatedListener.Event mockEvent;
+
+  private Cache<ResponseCache.Key, byte[]> cache;
+  private ResponseCache unitUnderTest;
+
+  @Before
+  public void setUp() throws Exception {
+    cache = CacheBuilder.newBuilder().build();
+    unitUnderTest = new ResponseCache(cache);
+    unitUnderTest.get(KEY, () -> new byte[] {1});
+    unitUnderTest.get(OTHER_KEY, () -> new byte[] {2});
+  }
+
+  @Test
+  public void testGetReturnsCachedValue() throws Exception {
+    assertThat(unitUnderTest.get(KEY, () -> new byte[] {3})).isEqualTo(new byte[] {1});
+  }
+
+  @Test
+  public void testProjectConfigUpdateEvictsProject() throws Exception {
+    when(mockEvent.getRefName()).thenReturn(RefNames.REFS_CONFIG);
+    when(mockEvent.getProjectName()).thenReturn(PROJECT_NAME);
+    unitUnderTest.onGitReferenceUpdated(mockEvent);
+    assertThat(cache.getIfPresent(KEY)).isNull();
+    assertThat(cache.getIfPresent(OTHER_KEY)).isNotNull();
+  }
+
+  @Test
+  public void testBranchUpdateKeepsProject() throws Exception {
+    when(mockEvent.getRefName()).thenReturn("refs/heads/master");
+    unitUnderTest.onGitReferenceUpdated(mockEvent);
+    assertThat(cache.getIfPresent(KEY)).isNotNull();
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.goimport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class TopImportPathsTest {
+  private final TopImportPaths unitUnderTest = new TopImportPaths();
+
+  @Test
+  public void testTop() throws Exception {
+    unitUnderTest.record("bob/my-project");
+    unitUnderTest.record("tom/my-project");
+    unitUnderTest.record("bob/my-project");
+    unitUnderTest.record("alice/my-project");
+    unitUnderTest.record("bob/my-project/package1");
+    unitUnderTest.record("bob/my-project/package1");
+
+    assertThat(unitUnderTest.top(3))
+        .containsExactly(
+            "bob/my-project", 2L, "bob/my-project/package1", 2L, "alice/my-project", 1L)
+        .inOrder();
+    assertThat(unitUnderTest.top(10)).hasSize(4);
+  }
+}